@@ -0,0 +1,172 @@
+package net.benjaminurquhart.gmparser;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.resources.PointerList;
+import net.benjaminurquhart.gmparser.resources.PointerMap;
+import net.benjaminurquhart.gmparser.resources.Resource;
+
+// Sorted ranges of every chunk and resource, for finding out what an arbitrary address points into.
+// Each resource runs from its pointer to the end of its own bytes, so headers and padding in between
+// (like the length in front of a string) only resolve to the chunk. Resources whose length isn't known
+// run up to the next pointer in the same chunk (or the end of the chunk). Lookups are a binary search.
+// Add everything before looking anything up, the ranges are re-sorted after every change.
+public class AddressIndex {
+
+	public static class Location {
+
+		private Resource resource;
+		private IFFChunk chunk;
+		private long start, offset;
+
+		private Location(IFFChunk chunk, Resource resource, long start, long offset) {
+			this.resource = resource;
+			this.offset = offset;
+			this.chunk = chunk;
+			this.start = start;
+		}
+
+		public IFFChunk getChunk() {
+			return chunk;
+		}
+		// Null if the address isn't inside of any known resource
+		public Resource getResource() {
+			return resource;
+		}
+		// Pointer to the resource, or the start of the chunk contents if there isn't one
+		public long getStart() {
+			return start;
+		}
+		// How far into the resource (or chunk) the address is
+		public long getOffset() {
+			return offset;
+		}
+		@Override
+		public String toString() {
+			return String.format("Location [chunk=%s, resource=%s, start=0x%08x, offset=0x%x]", chunk.getTypeID(), resource, start, offset);
+		}
+	}
+
+	// Built together and never changed afterwards, so a lookup only has to read one field
+	private static class Ranges {
+
+		private long[] starts, ends;
+		private Resource[] resources;
+	}
+
+	private long[] chunkStarts, chunkEnds;
+	private IFFChunk[] chunks;
+	
+	// Null until the next lookup whenever something was added
+	private volatile Ranges ranges;
+
+	private PointerMap<Resource> pending = new PointerMap<>();
+
+	public AddressIndex(List<IFFChunk> chunks) {
+		this.chunks = chunks.toArray(new IFFChunk[0]);
+		Arrays.sort(this.chunks, (a,b) -> Long.compare(a.getAbsoluteOffset(), b.getAbsoluteOffset()));
+		chunkStarts = new long[this.chunks.length];
+		chunkEnds = new long[this.chunks.length];
+		for(int i = 0; i < this.chunks.length; i++) {
+			chunkStarts[i] = this.chunks[i].getAbsoluteOffset();
+			chunkEnds[i] = chunkStarts[i]+this.chunks[i].getLongLength();
+		}
+	}
+
+	public synchronized AddressIndex add(long pointer, Resource resource) {
+		pending.put(pointer, resource);
+		ranges = null;
+		return this;
+	}
+	public synchronized AddressIndex addAll(PointerMap<? extends Resource> resources) {
+		resources.forEach((resource, pointer) -> pending.put(pointer, resource));
+		ranges = null;
+		return this;
+	}
+	public AddressIndex addAll(PointerList list) {
+		long base = list.getChunk().getAbsoluteOffset();
+		for(Resource resource : list) {
+			this.add(base+resource.getLongOffset(), resource);
+		}
+		return this;
+	}
+
+	private Ranges ranges() {
+		Ranges ranges = this.ranges;
+		return ranges == null ? this.build() : ranges;
+	}
+	// Sorted on the first lookup after something was added
+	private synchronized Ranges build() {
+		Ranges ranges = this.ranges;
+		if(ranges != null) {
+			return ranges;
+		}
+		long[] pointers = new long[pending.size()];
+		int[] count = new int[1];
+		pending.forEach((resource, pointer) -> pointers[count[0]++] = pointer);
+		Arrays.sort(pointers);
+
+		// Resources outside of every chunk (external audio) are left out
+		int size = 0, chunk;
+		for(long pointer : pointers) {
+			chunk = floor(chunkStarts, pointer);
+			if(chunk >= 0 && pointer < chunkEnds[chunk]) {
+				pointers[size++] = pointer;
+			}
+		}
+		ranges = new Ranges();
+		ranges.starts = Arrays.copyOf(pointers, size);
+		ranges.ends = new long[size];
+		ranges.resources = new Resource[size];
+		long end;
+		for(int i = 0; i < size; i++) {
+			chunk = floor(chunkStarts, ranges.starts[i]);
+			ranges.resources[i] = pending.get(ranges.starts[i]);
+			end = end(ranges.resources[i]);
+			if(end < 0) {
+				end = i+1 < size && ranges.starts[i+1] < chunkEnds[chunk] ? ranges.starts[i+1] : chunkEnds[chunk];
+			}
+			ranges.ends[i] = Math.min(end, chunkEnds[chunk]);
+		}
+		this.ranges = ranges;
+		return ranges;
+	}
+	// Where the resource's own bytes end, -1 if its length isn't known.
+	// Not always its pointer plus its length, strings are pointed at after their length and audio before it.
+	private static long end(Resource resource) {
+		if(resource.getSource() == null || resource.getLongLength() < 0) {
+			return -1;
+		}
+		return resource.getSource().getAbsoluteOffset()+resource.getLongOffset()+resource.getLongLength();
+	}
+
+	// Null if the address isn't inside of any chunk
+	public Location find(long address) {
+		Ranges ranges = this.ranges();
+		int chunk = floor(chunkStarts, address);
+		if(chunk < 0 || address >= chunkEnds[chunk]) {
+			return null;
+		}
+		int index = floor(ranges.starts, address);
+		if(index >= 0 && address < ranges.ends[index]) {
+			return new Location(chunks[chunk], ranges.resources[index], ranges.starts[index], address-ranges.starts[index]);
+		}
+		return new Location(chunks[chunk], null, chunkStarts[chunk], address-chunkStarts[chunk]);
+	}
+	// The resource containing the address, or null
+	public Resource findResource(long address) {
+		Location location = this.find(address);
+		return location == null ? null : location.getResource();
+	}
+	public int size() {
+		return this.ranges().starts.length;
+	}
+
+	// Index of the last value <= key, or -1
+	private static int floor(long[] sorted, long key) {
+		int index = Arrays.binarySearch(sorted, key);
+		return index >= 0 ? index : -index-2;
+	}
+}
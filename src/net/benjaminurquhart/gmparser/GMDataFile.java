@@ -1,23 +1,263 @@
 package net.benjaminurquhart.gmparser;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.benjaminurquhart.gmparser.resources.*;
 import net.benjaminurquhart.gmparser.iff.*;
 
 // New reference document: https://pcy.ulyssis.be/undertale/unpacking-corrected
 // See SequenceResource for the SEQN chunk cause it's nowhere near documented enough to attempt to parse it here yet
-public class GMDataFile {
+//
+// Thread safety: once constructed, a GMDataFile and its resources can be read from any number of
+// threads. Categories load once (see ensureLoaded()), and the lazy caches on resources (decoded
+// textures, frames, GIFs, strings) publish safely and compute expensive artifacts only once.
+// reloadAudio(), addAudioResourceFile() and setAutoAudioSearch() change the file and must not
+// run while other threads are reading it.
+public class GMDataFile implements Closeable {
+	
+	// Each category is loaded from one chunk and only after the ones it depends on
+	public static enum Category {
+		STRINGS("STRG"),
+		TEXTURES("TXTR"),
+		TPAG("TPAG", TEXTURES),
+		SPRITES("SPRT", STRINGS, TPAG),
+		FONTS("FONT", STRINGS, TPAG),
+		AUDIO("AUDO"),
+		AUDIO_GROUPS("AGRP", STRINGS),
+		SOUNDS("SOND", STRINGS, AUDIO, AUDIO_GROUPS),
+		OBJECTS("OBJT", STRINGS),
+		ROOMS("ROOM", STRINGS);
+		
+		private final Category[] dependencies;
+		private final String chunkID;
+		
+		private Category(String chunkID, Category... dependencies) {
+			this.dependencies = dependencies;
+			this.chunkID = chunkID;
+		}
+		
+		public String getChunkID() {
+			return chunkID;
+		}
+		public List<Category> getDependencies() {
+			return Collections.unmodifiableList(Arrays.asList(dependencies));
+		}
+	}
+	
+	// What happens when a category fails to load
+	public static enum ErrorHandling {
+		FAIL,
+		WARN,
+		IGNORE;
+	}
+	
+	// Everything that can be chosen when opening an archive, setters can be chained.
+	// The defaults match new GMDataFile(file).
+	public static class Options {
+		
+		private Map<Category, ErrorHandling> errorHandling = new EnumMap<>(Category.class);
+		private Set<Category> categories = EnumSet.allOf(Category.class);
+		private IFFFile.LoadMode loadMode = IFFFile.LoadMode.HEAP;
+		private Executor executor = ForkJoinPool.commonPool();
+		private boolean autoAudioSearch, forceLoad, eager, background;
+		// Null until it's set, the default depends on setBackground()
+		private Boolean decodeTextures;
+		private int rawSpriteCacheSize = 256;
+		private File assetsFolder, indexFile;
+		private MemoryBudget budget;
+		
+		public Options() {}
+		private Options(Options other) {
+			this.errorHandling = new EnumMap<>(other.errorHandling);
+			this.forceLoad = other.forceLoad;
+			this.categories = EnumSet.copyOf(other.categories);
+			this.autoAudioSearch = other.autoAudioSearch;
+			this.decodeTextures = other.decodeTextures;
+			this.assetsFolder = other.assetsFolder;
+			this.indexFile = other.indexFile;
+			this.loadMode = other.loadMode;
+			this.executor = other.executor;
+			this.rawSpriteCacheSize = other.rawSpriteCacheSize;
+			this.budget = other.budget;
+			this.background = other.background;
+			this.eager = other.eager;
+		}
+		
+		// Anything the given categories depend on is selected as well.
+		// Getters of categories that aren't selected throw an IllegalStateException.
+		public Options setCategories(Category... categories) {
+			if(categories == null) {
+				throw new IllegalArgumentException("categories cannot be null");
+			}
+			this.categories = EnumSet.noneOf(Category.class);
+			for(Category category : categories) {
+				this.select(category);
+			}
+			return this;
+		}
+		private void select(Category category) {
+			if(categories.add(category)) {
+				for(Category dependency : category.dependencies) {
+					this.select(dependency);
+				}
+			}
+		}
+		// Sheets are decoded while loading TPAG to check that every entry fits in its sheet.
+		// Without that, entries are only indexed and sheets are decoded the first time they're drawn.
+		// On by default unless loading in the background, setting it either way overrides that.
+		public Options setDecodeTextures(boolean decodeTextures) {
+			this.decodeTextures = decodeTextures;
+			return this;
+		}
+		// Also load every audiogroupN.dat next to the archive, not only when audio is missing
+		public Options setAutoAudioSearch(boolean autoAudioSearch) {
+			this.autoAudioSearch = autoAudioSearch;
+			return this;
+		}
+		public Options setErrorHandling(Category category, ErrorHandling handling) {
+			if(category == null || handling == null) {
+				throw new IllegalArgumentException("category and error handling cannot be null");
+			}
+			errorHandling.put(category, handling);
+			return this;
+		}
+		public Options setErrorHandling(ErrorHandling handling) {
+			for(Category category : Category.values()) {
+				this.setErrorHandling(category, handling);
+			}
+			return this;
+		}
+		// Warn instead of failing for every category but STRINGS, false restores the defaults.
+		// STRG has always been fatal, nothing can be named without it.
+		// Only changes the default, categories given to setErrorHandling() keep what they were given
+		// no matter which one is called first.
+		public Options setForceLoad(boolean forceLoad) {
+			this.forceLoad = forceLoad;
+			return this;
+		}
+		// Load every selected category in the constructor instead of the first time it's used
+		public Options setEager(boolean eager) {
+			this.eager = eager;
+			return this;
+		}
+		// Return from the constructor right away and load every selected category in the background.
+		// Getters only wait for their own category, see also the *Async getters.
+		// Use a LoadMode other than HEAP, otherwise the whole archive is still read up front.
+		// Sprites wait on TPAG, so texture sheets aren't decoded up front in the background unless
+		// setDecodeTextures(true) is called, otherwise the first sprite waits for every sheet.
+		public Options setBackground(boolean background) {
+			this.background = background;
+			return this;
+		}
+		public Options setLoadMode(IFFFile.LoadMode loadMode) {
+			if(loadMode == null) {
+				throw new IllegalArgumentException("load mode cannot be null");
+			}
+			this.loadMode = loadMode;
+			return this;
+		}
+		public Options setExecutor(Executor executor) {
+			if(executor == null) {
+				throw new IllegalArgumentException("executor cannot be null");
+			}
+			this.executor = executor;
+			return this;
+		}
+		// Null for no limit
+		public Options setMemoryBudget(MemoryBudget budget) {
+			this.budget = budget;
+			return this;
+		}
+		// How many frames getRawSprite() keeps around, 0 to not cache any
+		public Options setRawSpriteCacheSize(int rawSpriteCacheSize) {
+			if(rawSpriteCacheSize < 0) {
+				throw new IllegalArgumentException("invalid cache size: " + rawSpriteCacheSize);
+			}
+			this.rawSpriteCacheSize = rawSpriteCacheSize;
+			return this;
+		}
+		// Null to not keep an index
+		public Options setIndexFile(File indexFile) {
+			this.indexFile = indexFile;
+			return this;
+		}
+		// Null to use the folder the archive is in
+		public Options setAssetsFolder(File assetsFolder) {
+			this.assetsFolder = assetsFolder;
+			return this;
+		}
+		
+		public Set<Category> getCategories() {
+			return Collections.unmodifiableSet(categories);
+		}
+		public ErrorHandling getErrorHandling(Category category) {
+			ErrorHandling handling = errorHandling.get(category);
+			if(handling != null) {
+				return handling;
+			}
+			// FONT has never been required to load
+			if(category == Category.FONTS || (forceLoad && category != Category.STRINGS)) {
+				return ErrorHandling.WARN;
+			}
+			return ErrorHandling.FAIL;
+		}
+		public boolean willDecodeTextures() {
+			return decodeTextures == null ? !background : decodeTextures;
+		}
+		public boolean willAutoSearchAudio() {
+			return autoAudioSearch;
+		}
+		public boolean isEager() {
+			return eager;
+		}
+		public boolean isBackground() {
+			return background;
+		}
+		public IFFFile.LoadMode getLoadMode() {
+			return loadMode;
+		}
+		public Executor getExecutor() {
+			return executor;
+		}
+		public MemoryBudget getMemoryBudget() {
+			return budget;
+		}
+		public File getIndexFile() {
+			return indexFile;
+		}
+		public int getRawSpriteCacheSize() {
+			return rawSpriteCacheSize;
+		}
+		public File getAssetsFolder() {
+			return assetsFolder;
+		}
+	}
 	
 	private File file, folder;
 	
@@ -25,18 +265,30 @@ public class GMDataFile {
 	
 	private IFFChunk main, audioChunk, textureChunk, spriteChunk, tpagChunk, fontChunk, roomChunk, stringChunk, objectChunk, audioMetaChunk, audioGroupChunk;
 	
-	private Map<Long, StringResource> stringOffsetTable;
-	private Map<Long, TPAGResource> tpagOffsetTable;
+	private PointerMap<StringResource> stringOffsetTable;
+	private TPAGTable tpagTable;
 	
 	private Map<String, BufferedImage> rawValueCache;
 	
 	private Map<String, AudioGroupResource> audioGroupTable;
 	private Map<String, ObjectResource> objectTable;
+	private ObjectTable objectColumns;
 	private Map<String, SpriteResource> spriteTable;
+	private NameIndex<SpriteResource> spriteIndex;
 	private Map<String, AudioResource> audioTable;
 	private Map<String, RoomResource> roomTable;
 	private Map<String, FontResource> fontTable;
-	private Map<Long, Resource> pointerTable;
+	// One per category, so stages never write to the same one
+	private Map<Category, PointerMap<? extends Resource>> pointerTables = new ConcurrentHashMap<>();
+	
+	private Map<Category, CompletableFuture<Void>> stages = new ConcurrentHashMap<>();
+	// Stages that haven't finished yet (plus callers still starting some), see finishStage()
+	private AtomicInteger pendingStages = new AtomicInteger();
+	private AddressIndex addressIndex;
+	// Categories already added to addressIndex
+	private Set<Category> indexedCategories = EnumSet.noneOf(Category.class);
+	private volatile NameSearch nameSearch;
+	private Executor executor;
 	
 	private List<AudioGroupResource> audioGroups;
 	private List<TextureResource> textures;
@@ -46,17 +298,31 @@ public class GMDataFile {
 	private List<AudioResource> audio;
 	private List<RoomResource> rooms;
 	private List<FontResource> fonts;
-	private List<TPAGResource> tpags;
 	
 	private long absoluteStringOffset, absoluteTextureOffset, absoluteSpriteOffset, absoluteAudioOffset, absoluteTPAGOffset, absoluteRoomOffset, absoluteObjectOffset, absoluteFontOffset, absoluteAudioMetaOffset;
 	
 	private int gameMakerVersion = 1, gameMakerMinor = 0, bytecodeVersion;
 	private String game = "???";
+	private long titleOffset;
 	
 	private List<File> audioSupplements;
+	// Audio groups loaded from entries of the zip, kept apart as they are not files
+	private List<String> zipAudioGroups;
+	// Closed along with the data file, see close()
+	private List<IFFFile> audioGroupFiles = new ArrayList<>();
+	private IFFFile.LoadMode loadMode;
+	private MemoryBudget budget;
+	private IndexCache index;
+	
+	// Set if the archive is an entry of a zip/APK instead of a file on its own
+	private ZipArchive zip;
+	private String entryName;
 	private boolean autoAudioSearch;
 	private boolean missingAudio;
 	
+	private Set<Category> categories;
+	private Options options;
+	
 	public GMDataFile(File file) {
 		this(file, file.getParentFile());
 	}
@@ -70,15 +336,46 @@ public class GMDataFile {
 		this(file, assetsFolder, autoAudioSearch, false);
 	}
 	public GMDataFile(File file, File assetsFolder, boolean autoAudioSearch, boolean forceLoad) {
+		this(file, assetsFolder, autoAudioSearch, forceLoad, IFFFile.LoadMode.HEAP);
+	}
+	public GMDataFile(File file, File assetsFolder, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode) {
+		this(file, assetsFolder, autoAudioSearch, forceLoad, loadMode, null);
+	}
+	// If indexFile is not null, the decoded offset tables are kept there and reused
+	// the next time the same (unchanged) archive is opened
+	public GMDataFile(File file, File assetsFolder, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode, File indexFile) {
+		this(file, assetsFolder, autoAudioSearch, forceLoad, loadMode, indexFile, null);
+	}
+	// Chunks, textures and audio that would go over the budget are mapped or rejected, see MemoryBudget
+	public GMDataFile(File file, File assetsFolder, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode, File indexFile, MemoryBudget budget) {
+		this(file, assetsFolder, autoAudioSearch, forceLoad, loadMode, indexFile, budget, ForkJoinPool.commonPool());
+	}
+	// Categories that don't depend on each other are loaded in parallel on the executor.
+	// Use Runnable::run to load everything on the calling thread.
+	public GMDataFile(File file, File assetsFolder, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode, File indexFile, MemoryBudget budget, Executor executor) {
+		this(file, new Options()
+				.setAssetsFolder(assetsFolder)
+				.setAutoAudioSearch(autoAudioSearch)
+				.setForceLoad(forceLoad)
+				.setLoadMode(loadMode)
+				.setIndexFile(indexFile)
+				.setMemoryBudget(budget)
+				.setExecutor(executor));
+	}
+	public GMDataFile(File file, Options options) {
 		if(file == null) {
 			throw new IllegalArgumentException("file cannot be null");
 		}
+		if(options == null) {
+			throw new IllegalArgumentException("options cannot be null");
+		}
 		if(!file.exists()) {
 			throw new IllegalStateException("asset file not found: " + file.getAbsolutePath());
 		}
 		if(file.isDirectory()) {
 			throw new IllegalArgumentException("asset file is a directory: " + file.getAbsolutePath());
 		}
+		File assetsFolder = options.getAssetsFolder();
 		if(assetsFolder == null) {
 			if(file.getParent() == null) {
 				throw new IllegalStateException("asset file does not have a parent and no asset folder provided");
@@ -88,12 +385,77 @@ public class GMDataFile {
 		else if(!assetsFolder.isDirectory()) {
 			throw new IllegalArgumentException("asset folder is a file: " + assetsFolder.getAbsolutePath());
 		}
+		this.folder = assetsFolder;
+		this.file = file;
+		
+		this.open(options);
+	}
+	// Opens an archive stored inside of a zip or APK (e.g. assets/game.droid) without extracting it.
+	// Stored entries are read in place, audio groups are looked up next to the entry in the same zip.
+	public GMDataFile(ZipArchive zip, String entry, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode) {
+		this(zip, entry, autoAudioSearch, forceLoad, loadMode, null);
+	}
+	public GMDataFile(ZipArchive zip, String entry, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode, MemoryBudget budget) {
+		this(zip, entry, autoAudioSearch, forceLoad, loadMode, budget, ForkJoinPool.commonPool());
+	}
+	public GMDataFile(ZipArchive zip, String entry, boolean autoAudioSearch, boolean forceLoad, IFFFile.LoadMode loadMode, MemoryBudget budget, Executor executor) {
+		this(zip, entry, new Options()
+				.setAutoAudioSearch(autoAudioSearch)
+				.setForceLoad(forceLoad)
+				.setLoadMode(loadMode)
+				.setMemoryBudget(budget)
+				.setExecutor(executor));
+	}
+	// The index file and assets folder options are ignored, nothing is written next to the zip
+	public GMDataFile(ZipArchive zip, String entry, Options options) {
+		if(zip == null || entry == null) {
+			throw new IllegalArgumentException("zip and entry cannot be null");
+		}
+		if(options == null) {
+			throw new IllegalArgumentException("options cannot be null");
+		}
+		if(!zip.hasEntry(entry)) {
+			throw new IllegalStateException("asset entry not found: " + entry + " in " + zip.getFile().getAbsolutePath());
+		}
+		this.folder = zip.getFile().getAbsoluteFile().getParentFile();
+		this.entryName = entry;
+		this.file = zip.getFile();
+		this.zip = zip;
+		
+		this.open(new Options(options).setIndexFile(null));
+	}
+	
+	private void open(Options options) {
+		this.options = new Options(options);
+		this.categories = EnumSet.copyOf(this.options.categories);
+		this.autoAudioSearch = options.willAutoSearchAudio();
+		this.loadMode = options.getLoadMode();
+		this.executor = options.getExecutor();
+		this.budget = options.getMemoryBudget();
+		
+		// Least recently used frames go first
+		int cacheSize = options.getRawSpriteCacheSize();
+		this.rawValueCache = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+				return this.size() > cacheSize;
+			}
+		};
+		
+		File indexFile = options.getIndexFile();
 		try {
-			this.autoAudioSearch = autoAudioSearch;
-			this.folder = assetsFolder;
-			this.file = file;
+			resources = zip == null ? new IFFFile(file, loadMode, budget) : zip.open(entryName, loadMode, budget);
 			
-			resources = new IFFFile(file);
+			if(indexFile != null) {
+				try {
+					index = new IndexCache(file, indexFile);
+				}
+				catch(IOException e) {
+					System.err.println("WARNING: Failed to open index cache, everything will be parsed from scratch");
+					e.printStackTrace();
+				}
+			}
 			
 			try {
 				main = resources.getChunk("FORM");
@@ -129,154 +491,279 @@ public class GMDataFile {
 			absoluteFontOffset = getOffset(fontChunk);
 			absoluteTPAGOffset = getOffset(tpagChunk);
 			
-			pointerTable = new HashMap<>();
-			
-			initStringTable();
-			
 			try {
 				IFFChunk meta = main.getSubChunk("GEN8");
 				gameMakerVersion = meta.readInt(44);
 				bytecodeVersion = meta.readByte(1);
 				gameMakerMinor = meta.readInt(48);
+				titleOffset = meta.readInt(40);
 				
 				if(gameMakerMinor == 0 && main.hasSubChunk("ARCV") && main.hasSubChunk("SEQN")) {
 					gameMakerMinor = 3;
 				}
-				
-				
-				StringResource name = getStringFromAbsoluteOffset(meta.readInt(40));
-				game = name.getString();
 			}
 			
 			catch(Exception e) {
 				e.printStackTrace();
 			}
 			
+			// Nothing else is read until a category is asked for, see ensureLoaded()
+		}
+		catch(RuntimeException e) {
+			System.err.printf("Error while processing game '%s' (GM Version %d.%d)\n", game, gameMakerVersion, gameMakerMinor);
+			throw e;
+		}
+		catch(Throwable e) {
+			System.err.printf("Error while processing game '%s' (GM Version %d.%d)\n", game, gameMakerVersion, gameMakerMinor);
+			throw new RuntimeException(e);
+		}
+		if(this.options.isEager() && !categories.isEmpty()) {
+			this.ensureLoaded(categories.toArray(new Category[0]));
+		}
+		else if(this.options.isBackground()) {
+			// In declaration order, so the categories most others need come first
+			this.startStages(categories);
+		}
+	}
+	private long getOffset(IFFChunk chunk) {
+		return chunk.getOffset()+16;
+	}
+	
+	// Every resource getter goes through here, so a category that already loaded only costs a map lookup
+	public void ensureLoaded(Category category) {
+		CompletableFuture<Void> stage = stages.get(category);
+		if(stage == null || !stage.isDone() || stage.isCompletedExceptionally()) {
+			this.ensureLoaded(new Category[] {category});
+		}
+	}
+	// Loads the categories (and everything they depend on) if they haven't been already.
+	// Categories that don't depend on each other are loaded in parallel, each one only ever loads once.
+	// Failures are rethrown in category order so the same archive always fails the same way.
+	public void ensureLoaded(Category... categories) {
+		for(Category category : categories) {
+			if(!this.categories.contains(category)) {
+				throw new IllegalStateException(category + " was not selected in the load options");
+			}
+		}
+		this.startStages(Arrays.asList(categories));
+		RuntimeException failure = null;
+		for(Category category : categories) {
 			try {
-				initTextures();
+				this.startStage(category).join();
 			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load TXTR");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
+			catch(CompletionException e) {
+				if(failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : e;
 				}
 			}
-			
-			try {
-				initTPAG();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+	// Same as ensureLoaded() without waiting. The future fails the same way ensureLoaded() would throw.
+	public CompletableFuture<Void> loadAsync(Category... categories) {
+		CompletableFuture<?>[] stages = new CompletableFuture<?>[categories.length];
+		for(int i = 0; i < categories.length; i++) {
+			if(!this.categories.contains(categories[i])) {
+				CompletableFuture<Void> out = new CompletableFuture<>();
+				out.completeExceptionally(new IllegalStateException(categories[i] + " was not selected in the load options"));
+				return out;
 			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load TPAG");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
-				}
+		}
+		this.startStages(Arrays.asList(categories));
+		for(int i = 0; i < categories.length; i++) {
+			stages[i] = this.startStage(categories[i]);
+		}
+		return CompletableFuture.allOf(stages);
+	}
+	// Whether the category was selected in the load options, see Options.setCategories()
+	public boolean isSelected(Category category) {
+		return categories.contains(category);
+	}
+	public boolean isLoaded(Category category) {
+		CompletableFuture<Void> stage = stages.get(category);
+		return stage != null && stage.isDone() && !stage.isCompletedExceptionally();
+	}
+	// Starts the stage once everything it depends on has finished.
+	// The stage is registered before anything is started, so no lock is held while it runs
+	// (which a same-thread executor would otherwise do) and every caller still shares one stage.
+	private CompletableFuture<Void> startStage(Category category) {
+		CompletableFuture<Void> stage = stages.get(category);
+		if(stage != null) {
+			return stage;
+		}
+		CompletableFuture<Void> start = new CompletableFuture<>();
+		CompletableFuture<Void> created = start.thenCompose(v -> {
+			CompletableFuture<?>[] dependencies = new CompletableFuture<?>[category.dependencies.length];
+			for(int i = 0; i < dependencies.length; i++) {
+				dependencies[i] = this.startStage(category.dependencies[i]);
 			}
-
+			return CompletableFuture.allOf(dependencies);
+		}).handleAsync((v, failure) -> {
 			try {
-				initSprites();
-			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load SPRT");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
+				if(failure != null) {
+					// A dependency failed, so this one fails the same way without running
+					throw failure instanceof CompletionException ? (CompletionException)failure : new CompletionException(failure);
 				}
+				this.runStage(category);
+				return null;
 			}
-			
-			try {
-				initFonts();
+			finally {
+				this.finishStage();
 			}
-			catch(Exception e) {
-				System.err.println("WARNING: Failed to load FONT");
-				e.printStackTrace();
+		}, executor);
+		
+		stage = stages.putIfAbsent(category, created);
+		if(stage != null) {
+			// Someone else got there first
+			return stage;
+		}
+		pendingStages.incrementAndGet();
+		start.complete(null);
+		return created;
+	}
+	// Holds off on saving the index until every stage started here has finished
+	private void startStages(Iterable<Category> categories) {
+		pendingStages.incrementAndGet();
+		try {
+			for(Category category : categories) {
+				this.startStage(category);
 			}
-			
+		}
+		finally {
+			this.finishStage();
+		}
+	}
+	// The index is only written once nothing is loading anymore, rather than after every stage
+	private void finishStage() {
+		if(pendingStages.decrementAndGet() == 0 && index != null && index.isDirty()) {
 			try {
-				initAudio();
+				index.save();
 			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load AUDO");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
-				}
+			catch(IOException e) {
+				System.err.println("WARNING: Failed to write index cache");
+				e.printStackTrace();
 			}
-			
-			try {
-				initAudioGroups();
+		}
+	}
+	private void runStage(Category category) {
+		try {
+			switch(category) {
+			case STRINGS: initStringTable(); break;
+			case TEXTURES: initTextures(); break;
+			case TPAG: initTPAG(); break;
+			case SPRITES: initSprites(); break;
+			case FONTS: initFonts(); break;
+			case AUDIO: initAudio(); break;
+			case AUDIO_GROUPS: initAudioGroups(); break;
+			case SOUNDS: initSoundMetadata(); break;
+			case OBJECTS: initObjects(); break;
+			case ROOMS: initRooms(); break;
 			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load AGRP");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
-				}
+		}
+		catch(RuntimeException e) {
+			switch(options.getErrorHandling(category)) {
+			case IGNORE: break;
+			case WARN: {
+				System.err.println("WARNING: Failed to load " + category.getChunkID());
+				e.printStackTrace();
+				break;
 			}
-			
-			try {
-				initSoundMetadata();
+			default: {
+				System.err.printf("Error while processing game '%s' (GM Version %d.%d)\n", game, gameMakerVersion, gameMakerMinor);
+				throw e;
 			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load SOND");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
-				}
 			}
+		}
+	}
+	private IFFChunk getChunk(Category category) {
+		switch(category) {
+		case STRINGS: return stringChunk;
+		case TEXTURES: return textureChunk;
+		case TPAG: return tpagChunk;
+		case SPRITES: return spriteChunk;
+		case FONTS: return fontChunk;
+		case AUDIO: return audioChunk;
+		case AUDIO_GROUPS: return audioGroupChunk;
+		case SOUNDS: return audioMetaChunk;
+		case OBJECTS: return objectChunk;
+		case ROOMS: return roomChunk;
+		default: return null;
+		}
+	}
+	
+	// Reads the title, versions and chunk list without loading anything else.
+	// Only the chunk headers, the first 52 bytes of GEN8 and the title string are read.
+	public static GameInfo probe(File file) throws IOException {
+		if(file == null) {
+			throw new IllegalArgumentException("file cannot be null");
+		}
+		IFFFile toc = new IFFFile(file, IFFFile.LoadMode.LAZY);
+		IFFChunk main = toc.getChunk("FORM"), meta = main.getSubChunk("GEN8");
+		
+		List<String> chunks = new ArrayList<>();
+		for(IFFChunk chunk : main.getSubChunks()) {
+			chunks.add(chunk.getTypeID());
+		}
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = readFully(channel, meta.getAbsoluteOffset(), 52);
+			int bytecodeVersion = header.get(1);
+			int titleOffset = header.getInt(40);
+			int gameMakerVersion = header.getInt(44);
+			int gameMakerMinor = header.getInt(48);
 			
-			try {
-				initObjects();
-			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load OBJT");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
-				}
+			if(gameMakerMinor == 0 && chunks.contains("ARCV") && chunks.contains("SEQN")) {
+				gameMakerMinor = 3;
 			}
 			
-			try {
-				initRooms();
-			}
-			catch(Exception e) {
-				if(forceLoad) {
-					System.err.println("WARNING: Failed to load ROOM");
-					e.printStackTrace();
-				}
-				else {
-					throw e;
+			// The title points at the characters, the length comes right before them
+			String title = "???";
+			if(main.hasSubChunk("STRG")) {
+				IFFChunk strings = main.getSubChunk("STRG");
+				long start = strings.getAbsoluteOffset(), relativeOffset = Integer.toUnsignedLong(titleOffset)-4-start;
+				if(relativeOffset >= 0 && relativeOffset+4 <= strings.getLongLength()) {
+					int length = readFully(channel, start+relativeOffset, 4).getInt(0);
+					if(length >= 0 && relativeOffset+4+length <= strings.getLongLength()) {
+						ByteBuffer chars = readFully(channel, start+relativeOffset+4, length);
+						title = Charset.forName("UTF-8").decode(chars).toString();
+					}
 				}
 			}
-			
-			textures.forEach(TextureResource::allowGC);
+			return new GameInfo(file, title, gameMakerVersion, gameMakerMinor, bytecodeVersion, chunks);
 		}
-		catch(RuntimeException e) {
-			System.err.printf("Error while processing game '%s' (GM Version %d.%d)\n", game, gameMakerVersion, gameMakerMinor);
-			throw e;
+	}
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buff = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buff.hasRemaining()) {
+			if(channel.read(buff, position+buff.position()) < 0) {
+				throw new IllegalStateException("unexpected end of file at offset " + (position+buff.position()));
+			}
 		}
-		catch(Throwable e) {
-			System.err.printf("Error while processing game '%s' (GM Version %d.%d)\n", game, gameMakerVersion, gameMakerMinor);
-			throw new RuntimeException(e);
+		buff.flip();
+		return buff;
+	}
+	// Registered right away, getResource() only looks at it once the category has loaded
+	private PointerMap<Resource> createPointerMap(Category category, int expectedSize) {
+		PointerMap<Resource> pointers = new PointerMap<>(Math.max(0, expectedSize));
+		pointerTables.put(category, pointers);
+		return pointers;
+	}
+	// Pointer tables are shared by almost every chunk
+	private int[] readOffsets(IFFChunk chunk) {
+		return chunk.readInts(4, new int[chunk.readInt(0)]);
+	}
+	private int[] getCachedTable(String id) {
+		return index == null ? null : index.get(id);
+	}
+	private void cacheTable(String id, int[] table) {
+		if(index != null) {
+			index.put(id, table);
 		}
 	}
-	private long getOffset(IFFChunk chunk) {
-		return chunk.getOffset()+16;
+	// Grows a table that's being filled in place, like an ArrayList would
+	private static int[] fit(int[] table, int size) {
+		return size <= table.length ? table : Arrays.copyOf(table, Math.max(size, table.length*2));
 	}
 	
 	/* |----------------------CHUNK FORMAT----------------------|
@@ -293,26 +780,40 @@ public class GMDataFile {
 	 * |--------------------------------------------------------|
 	 */
 	private void initStringTable() {
-		stringOffsetTable = new HashMap<>();
 		strings = new ArrayList<>();
 		
-		int num = stringChunk.readInt(0);
 		StringResource resource;
 		
-		List<Long> offsets = new ArrayList<>();
-		for(int i = 0; i < num; i++) {
-			offsets.add((long)stringChunk.readInt(4*(i+1)));
+		// [offset, length] pairs
+		int[] table = getCachedTable("STRG");
+		if(table == null) {
+			int[] offsets = readOffsets(stringChunk);
+			table = new int[offsets.length*2];
+			for(int i = 0; i < offsets.length; i++) {
+				table[i*2] = offsets[i];
+				table[i*2+1] = stringChunk.readInt((int)(offsets[i]-absoluteStringOffset));
+			}
+			cacheTable("STRG", table);
 		}
 		int relativeOffset, stringLength;
+		long offset;
 		
-		for(long offset : offsets) {
+		// Strings are pointed at by their characters, not their length
+		stringOffsetTable = new PointerMap<>(table.length/2);
+		pointerTables.put(Category.STRINGS, stringOffsetTable);
+		for(int i = 0; i < table.length; i += 2) {
+			offset = table[i];
 			relativeOffset = (int)(offset-absoluteStringOffset);
-			stringLength = stringChunk.readInt(relativeOffset);
+			stringLength = table[i+1];
 			resource = new StringResource(stringChunk, relativeOffset+4, stringLength);
 			stringOffsetTable.put(offset+4, resource);
-			pointerTable.put(offset+4, resource);
 			strings.add(resource);
 		}
+		// GEN8 is read before any stage starts
+		StringResource title = stringOffsetTable.get(titleOffset);
+		if(title != null) {
+			game = title.getString();
+		}
 	}
 	
 	/* |----------------------CHUNK FORMAT----------------------|
@@ -336,29 +837,41 @@ public class GMDataFile {
 	private void initTextures() {
 		textures = new ArrayList<>();
 		
-		int num = textureChunk.readInt(0);
-		int fileOffset = num*4;
 		TextureResource resource;
 		
-		int objectLength = gameMakerVersion == 2 ? 12 : 8;
+		// Data offsets of each entry
+		int[] table = getCachedTable("TXTR");
+		if(table == null) {
+			int num = textureChunk.readInt(0);
+			int fileOffset = num*4;
+			int objectLength = gameMakerVersion == 2 ? 12 : 8;
 		
-		List<Long> offsets = new ArrayList<>(), lengths = new ArrayList<>();
-		for(int i = 0; i < num; i++) {
-			offsets.add((long)textureChunk.readInt(fileOffset+objectLength*(i+1)));
-		}
-		for(int i = 1; i < num; i++) {
-			lengths.add(offsets.get(i)-offsets.get(i-1));
+			// The entries are read as one block, the data offset is the last field of each one
+			int stride = objectLength/4;
+			int[] entries = num == 0 ? new int[0] : textureChunk.readInts(fileOffset+objectLength, new int[(num-1)*stride+1]);
+			
+			table = new int[num];
+			for(int i = 0; i < num; i++) {
+				table[i] = entries[i*stride];
+			}
+			cacheTable("TXTR", table);
 		}
-		lengths.add((textureChunk.getOffset()+textureChunk.getLength())-offsets.get(offsets.size()-1));
-		long offset, length;
-		int relativeOffset;
+		int num = table.length;
+		long offset, length, relativeOffset;
 		
+		PointerMap<Resource> pointers = this.createPointerMap(Category.TEXTURES, num);
+		// Pointers are unsigned so archives over 2 GB still work
 		for(int i = 0; i < num; i++) {
-			offset = offsets.get(i);
-			length = lengths.get(i);
-			relativeOffset = (int)(offset-absoluteTextureOffset);
-			resource = new TextureResource(textureChunk, relativeOffset, (int)length);
-			pointerTable.put(offset, resource);
+			offset = Integer.toUnsignedLong(table[i]);
+			if(i < num-1) {
+				length = Integer.toUnsignedLong(table[i+1])-offset;
+			}
+			else {
+				length = (textureChunk.getOffset()+textureChunk.getLongLength())-offset;
+			}
+			relativeOffset = offset-absoluteTextureOffset;
+			resource = new TextureResource(textureChunk, relativeOffset, length);
+			pointers.put(offset, resource);
 			textures.add(resource);
 		}
 	}
@@ -385,21 +898,19 @@ public class GMDataFile {
 	 * |--------------------------------------------------------|
 	 */
 	private void initTPAG() {
-		tpagOffsetTable = new HashMap<>();
-		tpags = new ArrayList<>();
-		
-		int num = tpagChunk.readInt(0), offset, relativeOffset;
-		
-		TPAGResource resource;
-		for(int i = 0; i < num; i++) {
-			offset = tpagChunk.readInt(4*(i+1));
-			relativeOffset = (int)(offset-absoluteTPAGOffset);
-			resource = new TPAGResource(this, tpagChunk, relativeOffset);
-			tpagOffsetTable.put((long)offset, resource);
-			pointerTable.put((long)offset, resource);
-			tpags.add(resource);
-			
-			//System.out.println(resource);
+		int[] offsets = getCachedTable("TPAG");
+		if(offsets == null) {
+			cacheTable("TPAG", offsets = readOffsets(tpagChunk));
+		}
+		// Entries are kept in columns, TPAGResources are only created when asked for
+		tpagTable = new TPAGTable(tpagChunk, offsets, textures);
+		try {
+			// Assigned first so a bad entry only loses itself when errors are just warned about
+			tpagTable.validate(options.willDecodeTextures());
+		}
+		finally {
+			// The sheets were only decoded to check the bounds of each entry
+			textures.forEach(TextureResource::allowGC);
 		}
 	}
 	
@@ -421,22 +932,52 @@ public class GMDataFile {
 		spriteTable = new HashMap<>();
 		sprites = new ArrayList<>();
 		
-		int num = spriteChunk.readInt(0), offset, relativeOffset, width, height, nameOffset = -1;
+		int offset, relativeOffset, width, height, nameOffset = -1;
 		int[] tpagOffsets;
 		
+		SpriteResource resource;
+		PointerMap<Resource> pointers;
+		
+		// [offset, name, width, height, frame count, frames...] records
+		int[] table = getCachedTable("SPRT");
+		if(table != null) {
+			// Counted from the records so SPRT itself isn't touched
+			int count = 0;
+			for(int i = 0; i < table.length; i += 5+table[i+4]) {
+				count++;
+			}
+			pointers = this.createPointerMap(Category.SPRITES, count);
+			for(int i = 0; i < table.length; i += 5+table[i+4]) {
+				offset = table[i];
+				tpagOffsets = Arrays.copyOfRange(table, i+5, i+5+table[i+4]);
+				resource = new SpriteResource(this, spriteChunk, table[i+1], tpagOffsets, table[i+2], table[i+3], (int)(offset-absoluteSpriteOffset));
+				spriteTable.put(resource.getName().getString(), resource);
+				pointers.put((long)offset, resource);
+				sprites.add(resource);
+			}
+			spriteIndex = new NameIndex<>(spriteTable);
+			return;
+		}
+		
+		int[] offsets = readOffsets(spriteChunk);
+		int num = offsets.length, size = 0;
+		ChunkCursor cursor = spriteChunk.cursor();
+		int[] records = new int[num*6];
+		pointers = this.createPointerMap(Category.SPRITES, num);
+		
 		int tpagTableOffset = 56;
 		boolean foundRealTPAG = gameMakerVersion == 1;
 		
-		SpriteResource resource;
 		for(int i = 0; i < num; i++) {
-			offset = spriteChunk.readInt(4*(i+1));
+			offset = offsets[i];
 			relativeOffset = (int)(offset-absoluteSpriteOffset);
 			
 			try {
-				nameOffset = spriteChunk.readInt(relativeOffset);
+				cursor.seek(relativeOffset);
+				nameOffset = cursor.readInt();
 				
-				width = spriteChunk.readInt(relativeOffset+4);
-				height = spriteChunk.readInt(relativeOffset+8);
+				width = cursor.readInt();
+				height = cursor.readInt();
 				// GameMaker 2.3 puts an extra byte in the sprite data, meaning we have to find
 				// a new TPAG offset. Thanks.
 				if(!foundRealTPAG) {
@@ -449,19 +990,24 @@ public class GMDataFile {
 					}
 					foundRealTPAG = true;
 				}
-				tpagOffsets = new int[spriteChunk.readInt(relativeOffset+tpagTableOffset)];
+				cursor.seek(relativeOffset+tpagTableOffset);
+				tpagOffsets = cursor.readInts(new int[cursor.readInt()]);
 				
 				//System.out.printf("Num offsets: %d (0x%08x)\n", tpagOffsets.length, tpagOffsets.length);
-				
-				for(int j = 0; j < tpagOffsets.length; j++) {
-					tpagOffsets[j] = spriteChunk.readInt(relativeOffset+tpagTableOffset+4*(j+1));
-					//System.out.printf("0x%08x\n", tpagOffsets[j]);
-				}
 				resource = new SpriteResource(this, spriteChunk, nameOffset, tpagOffsets, width, height, relativeOffset);
 				spriteTable.put(resource.getName().getString(), resource);
-				pointerTable.put((long)offset, resource);
+				pointers.put((long)offset, resource);
 				sprites.add(resource);
 				
+				records = fit(records, size+5+tpagOffsets.length);
+				records[size++] = offset;
+				records[size++] = nameOffset;
+				records[size++] = width;
+				records[size++] = height;
+				records[size++] = tpagOffsets.length;
+				System.arraycopy(tpagOffsets, 0, records, size, tpagOffsets.length);
+				size += tpagOffsets.length;
+				
 				nameOffset = -1;
 			}
 			catch(RuntimeException e) {
@@ -478,6 +1024,8 @@ public class GMDataFile {
 				//throw e;
 			}
 		}
+		cacheTable("SPRT", Arrays.copyOf(records, size));
+		spriteIndex = new NameIndex<>(spriteTable);
 	}
 	/* |----------------------CHUNK FORMAT----------------------|
 	 * |    Offset    |   Size   |   Type   |    Description    |
@@ -499,7 +1047,13 @@ public class GMDataFile {
 		
 		AudioGroupResource resource;
 		
-		int num = audioGroupChunk.readInt(0);
+		// Group name offsets
+		int[] nameOffsets = getCachedTable("AGRP");
+		if(nameOffsets == null) {
+			int num = audioGroupChunk.readInt(0);
+			cacheTable("AGRP", nameOffsets = num == 0 ? new int[0] : audioGroupChunk.readInts(12, new int[num]));
+		}
+		int num = nameOffsets.length;
 		
 		if(num == 0) { 
 			resource = new AudioGroupResource("DEFAULT", 0);
@@ -510,7 +1064,7 @@ public class GMDataFile {
 		StringResource name;
 		int nameOffset;
 		for(int i = 0; i < num; i++) {
-			name = getStringFromAbsoluteOffset(nameOffset = audioGroupChunk.readInt(8+4*(i+1)));
+			name = getStringFromAbsoluteOffset(nameOffset = nameOffsets[i]);
 			resource = new AudioGroupResource(name == null ? String.format("Missing String @ 0x%08x", nameOffset) : name.getString(), i);
 			audioGroupTable.put(resource.getName(), resource);
 			audioGroups.add(resource);
@@ -599,7 +1153,7 @@ public class GMDataFile {
 		StringResource name, path;
 		boolean embedded;
 		
-		int num = audioMetaChunk.readInt(0), offset, relativeOffset, index;
+		int offset, relativeOffset, index;
 		Set<AudioResource> processed = new HashSet<>();
 		AudioResource audio;
 		
@@ -608,15 +1162,29 @@ public class GMDataFile {
 		List<SoundInfo> soundInfo = new ArrayList<>();
 		SoundInfo tmp;
 		
+		// [offset, 9 field record] entries
+		int[] table = getCachedTable("SOND"), record = new int[9];
+		if(table == null) {
+			int[] offsets = readOffsets(audioMetaChunk);
+			table = new int[offsets.length*10];
+			for(int i = 0; i < offsets.length; i++) {
+				table[i*10] = offsets[i];
+				audioMetaChunk.readInts((int)(offsets[i]-absoluteAudioMetaOffset), table, i*10+1, 9);
+			}
+			cacheTable("SOND", table);
+		}
+		int num = table.length/10;
+		
 		for(int i = 0, grp; i < num; i++) {
 			tmp = new SoundInfo();
-			tmp.offset = offset = audioMetaChunk.readInt(4*(i+1));
+			tmp.offset = offset = table[i*10];
 			tmp.relativeOffset = relativeOffset = (int)(offset-absoluteAudioMetaOffset);
-			tmp.name = getStringFromAbsoluteOffset(audioMetaChunk.readInt(relativeOffset));
-			tmp.flags = AudioResource.Flag.parse(audioMetaChunk.readInt(relativeOffset+4));
-			tmp.path = getStringFromAbsoluteOffset(audioMetaChunk.readInt(relativeOffset+12));
+			System.arraycopy(table, i*10+1, record, 0, 9);
+			tmp.name = getStringFromAbsoluteOffset(record[0]);
+			tmp.flags = AudioResource.Flag.parse(record[1]);
+			tmp.path = getStringFromAbsoluteOffset(record[3]);
 			
-			grp = audioMetaChunk.readInt(relativeOffset+28);
+			grp = record[7];
 			if(grp >= audioGroups.size()) {
 				for(int j = audioGroups.size(); j <= grp; j++) {
 					audioGroups.add(new AudioGroupResource("ANONYMOUS_"+j, 0));
@@ -624,7 +1192,7 @@ public class GMDataFile {
 			}
 			tmp.group = audioGroups.get(grp);
 			
-			tmp.index = audioMetaChunk.readInt(relativeOffset+32);
+			tmp.index = record[8];
 			soundInfo.add(tmp);
 		}
 		Collections.sort(soundInfo);
@@ -688,15 +1256,29 @@ public class GMDataFile {
 		audioTable = new HashMap<>();
 		audio = new ArrayList<>();
 		
-		int num = audioChunk.readInt(0), offset, relativeOffset, length;
+		// [offset, length] pairs, external audio groups are always read from their files
+		int[] table = getCachedTable("AUDO"), offsets;
+		if(table == null) {
+			offsets = readOffsets(audioChunk);
+			table = new int[offsets.length*2];
+			for(int i = 0; i < offsets.length; i++) {
+				table[i*2] = offsets[i];
+				table[i*2+1] = audioChunk.readInt(Integer.toUnsignedLong(offsets[i])-absoluteAudioOffset);
+			}
+			cacheTable("AUDO", table);
+		}
+		int num = table.length/2;
+		long offset, relativeOffset, length;
 		
+		// Pointers and lengths are unsigned so archives over 2 GB still work
+		PointerMap<Resource> pointers = this.createPointerMap(Category.AUDIO, num);
 		AudioResource resource;
 		for(int i = 0; i < num; i++) {
-			offset = audioChunk.readInt(4*(i+1));
-			relativeOffset = (int)(offset-absoluteAudioOffset);
-			length = audioChunk.readInt(relativeOffset);
+			offset = Integer.toUnsignedLong(table[i*2]);
+			relativeOffset = offset-absoluteAudioOffset;
+			length = Integer.toUnsignedLong(table[i*2+1]);
 			resource = new AudioResource(this, audioChunk, relativeOffset+4, length);
-			pointerTable.put((long)offset, resource);
+			pointers.put(offset, resource);
 			audio.add(resource);
 			
 			// I'm not sure if this will ever be true
@@ -705,20 +1287,27 @@ public class GMDataFile {
 			}
 		}
 		
-		if(!this.autoAudioSearch && !this.isMissingAudio()) {
+		if(!this.autoAudioSearch && !missingAudio) {
+			return;
+		}
+		
+		final Comparator<String> nameComp = (a,b) -> {
+			String parsedA = a.replaceAll("audiogroup(\\d+)\\.dat", "$1");
+			String parsedB = b.replaceAll("audiogroup(\\d+)\\.dat", "$1");
+			
+			int valA = parsedA.matches("\\d+") ? Integer.parseInt(parsedA) : -1;
+			int valB = parsedB.matches("\\d+") ? Integer.parseInt(parsedB) : -1;
+			
+			return valA-valB;
+		};
+		
+		if(zip != null) {
+			this.initZipAudioGroups(nameComp);
 			return;
 		}
 		
 		try {
-			final Comparator<File> comp = (a,b) -> {
-				String parsedA = a.getName().replaceAll("audiogroup(\\d+)\\.dat", "$1");
-				String parsedB = b.getName().replaceAll("audiogroup(\\d+)\\.dat", "$1");
-				
-				int valA = parsedA.matches("\\d+") ? Integer.parseInt(parsedA) : -1;
-				int valB = parsedB.matches("\\d+") ? Integer.parseInt(parsedB) : -1;
-				
-				return valA-valB;
-			};
+			final Comparator<File> comp = (a,b) -> nameComp.compare(a.getName(), b.getName());
 			File[] files = null;
 			if(audioSupplements == null || audioSupplements.isEmpty()) {
 				files = folder.listFiles(file -> !file.isDirectory() && !file.equals(this.file) && file.getName().matches("audiogroup\\d+\\.dat"));
@@ -733,35 +1322,15 @@ public class GMDataFile {
 				return;
 			}
 			Arrays.sort(files, comp);
-			IFFChunk chunk;
-			IFFFile data;
 			
 			if(audioSupplements == null) {
 				audioSupplements = new ArrayList<>();
 			}
 			
-			long absoluteOffset;
 			for(File file : files) {
 				try {
-					data = new IFFFile(file);
-					
-					try {
-						chunk = data.getChunk("FORM").getSubChunk("AUDO");
-					}
-					catch(IllegalArgumentException e) {
-						continue;
-					}
-					audioSupplements.add(file);
-					absoluteOffset = getOffset(chunk);
-					
-					num = chunk.readInt(0);
-					
-					for(int i = 0; i < num; i++) {
-						offset = chunk.readInt(4*(i+1));
-						relativeOffset = (int)(offset-absoluteOffset);
-						length = chunk.readInt(relativeOffset);
-						resource = new AudioResource(this, chunk, relativeOffset+4, length);
-						audio.add(resource);
+					if(this.addAudioGroup(new IFFFile(file, loadMode, budget))) {
+						audioSupplements.add(file);
 					}
 				}
 				catch(Exception e) {
@@ -774,6 +1343,55 @@ public class GMDataFile {
 			e.printStackTrace();
 		}
 	}
+	// Audio groups sit next to the data file inside of the APK
+	private void initZipAudioGroups(Comparator<String> comp) {
+		String prefix = entryName.contains("/") ? entryName.substring(0, entryName.lastIndexOf('/')+1) : "";
+		List<String> names = new ArrayList<>();
+		for(String name : zip.getEntryNames()) {
+			if(name.startsWith(prefix) && name.substring(prefix.length()).matches("audiogroup\\d+\\.dat")) {
+				names.add(name);
+			}
+		}
+		names.sort((a,b) -> comp.compare(a.substring(prefix.length()), b.substring(prefix.length())));
+		
+		// Rebuilt every time so reloadAudio() doesn't list them twice
+		List<String> loaded = new ArrayList<>();
+		for(String name : names) {
+			try {
+				if(this.addAudioGroup(zip.open(name, loadMode, budget))) {
+					loaded.add(name);
+				}
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+			}
+		}
+		zipAudioGroups = loaded;
+	}
+	// Returns false if the file doesn't have any audio
+	private boolean addAudioGroup(IFFFile data) {
+		IFFChunk chunk;
+		try {
+			chunk = data.getChunk("FORM").getSubChunk("AUDO");
+		}
+		catch(IllegalArgumentException e) {
+			data.close();
+			return false;
+		}
+		audioGroupFiles.add(data);
+		long absoluteOffset = getOffset(chunk), offset, relativeOffset, length;
+		
+		int num = chunk.readInt(0);
+		int[] offsets = chunk.readInts(4, new int[num]);
+		
+		for(int i = 0; i < num; i++) {
+			offset = Integer.toUnsignedLong(offsets[i]);
+			relativeOffset = offset-absoluteOffset;
+			length = Integer.toUnsignedLong(chunk.readInt(relativeOffset));
+			audio.add(new AudioResource(this, chunk, relativeOffset+4, length));
+		}
+		return true;
+	}
 	/*
 	 * 
 	 * 
@@ -788,7 +1406,7 @@ public class GMDataFile {
 		fontTable = new HashMap<>();
 		fonts = new ArrayList<>();
 		
-		int num = fontChunk.readInt(0), offset, relativeOffset, fontSize, charset, antialiasing;
+		int offset, relativeOffset, fontSize, charset, antialiasing;
 		double scaleX, scaleY;
 		boolean italic, bold;
 		char start, end;
@@ -798,40 +1416,65 @@ public class GMDataFile {
 		TPAGResource tpag;
 		FontResource font;
 		
-		for(int i = 0, tmp; i < num; i++) {
-			offset = fontChunk.readInt(4*(i+1));
+		// [offset, 11 header fields, glyph offsets...] records, the header
+		// is kept raw so it decodes the same way either way
+		int[] table = getCachedTable("FONT");
+		int count = 0;
+		if(table == null) {
+			int[] offsets = readOffsets(fontChunk);
+			ChunkCursor cursor = fontChunk.cursor();
+			int size = 0;
+			table = new int[offsets.length*12];
+			for(int i = 0; i < offsets.length; i++) {
+				cursor.seek(offsets[i]-absoluteFontOffset);
+				table = fit(table, size+12);
+				table[size] = offsets[i];
+				cursor.readInts(table, size+1, 11);
+				table = fit(table, size+12+table[size+11]);
+				cursor.readInts(table, size+12, table[size+11]);
+				size += 12+table[size+11];
+			}
+			cacheTable("FONT", table = Arrays.copyOf(table, size));
+			count = offsets.length;
+		}
+		else {
+			// Counted from the records so FONT itself isn't touched
+			for(int i = 0; i < table.length; i += 12+table[i+11]) {
+				count++;
+			}
+		}
+		
+		PointerMap<Resource> pointers = this.createPointerMap(Category.FONTS, count);
+		for(int i = 0, tmp; i < table.length; i += 12+table[i+11]) {
+			offset = table[i];
 			relativeOffset = (int)(offset-absoluteFontOffset);
 			
-			codeName = this.getStringFromAbsoluteOffset(fontChunk.readInt(relativeOffset));
-			displayName = this.getStringFromAbsoluteOffset(fontChunk.readInt(relativeOffset+4));
+			codeName = this.getStringFromAbsoluteOffset(table[i+1]);
+			displayName = this.getStringFromAbsoluteOffset(table[i+2]);
 			
-			fontSize = fontChunk.readInt(relativeOffset+8);
+			fontSize = table[i+3];
 			
-			bold = fontChunk.readInt(relativeOffset+12) != 0;
-			italic = fontChunk.readInt(relativeOffset+16) != 0;
+			bold = table[i+4] != 0;
+			italic = table[i+5] != 0;
 			
-			tmp = fontChunk.readInt(relativeOffset+20);
+			tmp = table[i+6];
 			start = (char)(tmp&0xffff);
 			charset = (tmp>>16)&0xff;
 			antialiasing = tmp>>24;
 			
-			end = (char)fontChunk.readInt(relativeOffset+24);
-			tpag = this.getTPAGFromAbsoluteOffset(fontChunk.readInt(relativeOffset+28));
-			
-			scaleX = Float.intBitsToFloat(fontChunk.readInt(relativeOffset+32));
-			scaleY = Float.intBitsToFloat(fontChunk.readInt(relativeOffset+36));
+			end = (char)table[i+7];
+			tpag = this.getTPAGFromAbsoluteOffset(Integer.toUnsignedLong(table[i+8]));
 			
-			glyphOffsets = new int[fontChunk.readInt(relativeOffset+40)];
+			scaleX = Float.intBitsToFloat(table[i+9]);
+			scaleY = Float.intBitsToFloat(table[i+10]);
 			
-			for(int j = 0; j < glyphOffsets.length; j++) {
-				glyphOffsets[j] = fontChunk.readInt(relativeOffset+44+4*j);
-			}
+			glyphOffsets = Arrays.copyOfRange(table, i+12, i+12+table[i+11]);
 			font = new FontResource(fontChunk, relativeOffset, codeName, displayName, fontSize, bold, italic, start, end, charset, antialiasing, tpag, scaleX, scaleY, glyphOffsets);
 			fontTable.put(displayName.getString(), font);
 			fontTable.put(codeName.getString(), font);
 			fonts.add(font);
 			
-			pointerTable.put((long)offset, font);
+			pointers.put((long)offset, font);
 		}
 		
 	}
@@ -840,13 +1483,20 @@ public class GMDataFile {
 		objectTable = new HashMap<>();
 		objects = new ArrayList<>();
 		
-		int count = objectChunk.readInt(0), offset;
+		int[] offsets = getCachedTable("OBJT");
+		if(offsets == null) {
+			cacheTable("OBJT", offsets = readOffsets(objectChunk));
+		}
+		int count = offsets.length;
+		
+		// Every field is read in one pass here, the resources are built from the columns
+		objectColumns = new ObjectTable(this, objectChunk, offsets);
 		
+		PointerMap<Resource> pointers = this.createPointerMap(Category.OBJECTS, count);
 		ObjectResource resource;
 		for(int i = 0; i < count; i++) {
-			offset = objectChunk.readInt(4*(i+1));
-			resource = new ObjectResource(this, objectChunk, (int)(offset-absoluteObjectOffset));
-			pointerTable.put((long)offset, resource);
+			resource = objectColumns.create(i);
+			pointers.put((long)offsets[i], resource);
 			objectTable.put(resource.getName().getString(), resource);
 			objects.add(resource);
 		}
@@ -856,24 +1506,50 @@ public class GMDataFile {
 		roomTable = new HashMap<>();
 		rooms = new ArrayList<>();
 		
-		int count = roomChunk.readInt(0), offset;
+		int[] offsets = getCachedTable("ROOM");
+		if(offsets == null) {
+			cacheTable("ROOM", offsets = readOffsets(roomChunk));
+		}
+		int count = offsets.length, offset;
+		
+		// Rooms are stored back to back, each one runs up to the next (or the end of the chunk)
+		int[] sorted = offsets.clone();
+		Arrays.sort(sorted);
 		
+		PointerMap<Resource> pointers = this.createPointerMap(Category.ROOMS, count);
 		RoomResource resource;
+		long end;
 		for(int i = 0; i < count; i++) {
-			offset = roomChunk.readInt(4*(i+1));
-			resource = new RoomResource(this, roomChunk, (int)(offset-absoluteRoomOffset));
-			pointerTable.put((long)offset, resource);
-			roomTable.put("", resource);
+			offset = offsets[i];
+			int next = Arrays.binarySearch(sorted, offset)+1;
+			while(next < count && sorted[next] == offset) {
+				next++;
+			}
+			end = next < count ? sorted[next] : absoluteRoomOffset+roomChunk.getLongLength();
+			resource = new RoomResource(this, roomChunk, (int)(offset-absoluteRoomOffset), end-offset);
+			pointers.put((long)offset, resource);
+			if(resource.getName() != null) {
+				roomTable.put(resource.getName().getString(), resource);
+			}
 			rooms.add(resource);
 		}
 		
 	}
 	
 	public StringResource getStringFromAbsoluteOffset(long offset) {
+		this.ensureLoaded(Category.STRINGS);
 		return stringOffsetTable.get(offset);
 	}
 	public TPAGResource getTPAGFromAbsoluteOffset(long offset) {
-		return tpagOffsetTable.get(offset);
+		this.ensureLoaded(Category.TPAG);
+		int index = tpagTable == null ? -1 : tpagTable.indexOf(offset);
+		return index < 0 ? null : tpagTable.get(index);
+	}
+	public CompletableFuture<StringResource> getStringFromAbsoluteOffsetAsync(long offset) {
+		return this.loadAsync(Category.STRINGS).thenApply(v -> stringOffsetTable.get(offset));
+	}
+	public CompletableFuture<TPAGResource> getTPAGFromAbsoluteOffsetAsync(long offset) {
+		return this.loadAsync(Category.TPAG).thenApply(v -> this.getTPAGFromAbsoluteOffset(offset));
 	}
 	public StringResource getStringFromOffset(long offset) {
 		return getStringFromAbsoluteOffset(offset+absoluteStringOffset);
@@ -881,66 +1557,254 @@ public class GMDataFile {
 	public TPAGResource getTPAGFromOffset(long offset) {
 		return getTPAGFromAbsoluteOffset(offset+absoluteTPAGOffset);
 	}
+	// name_<frame> gives that frame, anything else gives the first one
 	public BufferedImage getRawSprite(String sprite) {
-		if(rawValueCache == null) {
-			rawValueCache = new HashMap<>();
+		BufferedImage out;
+		synchronized(rawValueCache) {
+			out = rawValueCache.get(sprite);
 		}
-		if(rawValueCache.containsKey(sprite)) {
-			return rawValueCache.get(sprite);
+		if(out != null) {
+			return out;
 		}
 		SpriteResource source = getSprite(sprite);
-		if(!sprite.matches("^.+_\\d+$")) {
+		int suffix = frameSuffix(sprite, sprite.length());
+		if(suffix < 1) {
 			return source.getTexture();
 		}
-		int frame = Integer.parseInt(sprite.replaceAll("^.+_(\\d+)$", "$1"));
-		BufferedImage out = source.getFrames()[frame];
-		rawValueCache.put(sprite, out);
+		out = source.getFrame(parseFrame(sprite, suffix+1));
+		synchronized(rawValueCache) {
+			rawValueCache.put(sprite, out);
+		}
 		return out;
 	}
+	// Accepts the name with an extension and/or a _<frame> suffix
 	public SpriteResource getSprite(String sprite) {
-		if(sprite.contains(".")) {
-			sprite = sprite.substring(0, sprite.lastIndexOf("."));
+		this.ensureLoaded(Category.SPRITES);
+		int end = sprite.lastIndexOf('.');
+		if(end < 0) {
+			end = sprite.length();
+		}
+		SpriteResource out = spriteIndex.get(sprite, 0, end);
+		if(out == null) {
+			int suffix = frameSuffix(sprite, end);
+			if(suffix >= 0) {
+				out = spriteIndex.get(sprite, 0, suffix);
+			}
+			if(out == null) {
+				throw new IllegalArgumentException("Unknown sprite: " + sprite.substring(0, suffix < 0 ? end : suffix));
+			}
+		}
+		return out;
+	}
+	// Index of the _ in a trailing _<digits> before end, or -1
+	private static int frameSuffix(String name, int end) {
+		int index = end;
+		while(index > 0 && name.charAt(index-1) >= '0' && name.charAt(index-1) <= '9') {
+			index--;
+		}
+		if(index == end || index == 0 || name.charAt(index-1) != '_') {
+			return -1;
 		}
-		if(!spriteTable.containsKey(sprite)) {
-			sprite = sprite.replaceAll("_\\d+$", "");
-			if(!spriteTable.containsKey(sprite)) {
-				throw new IllegalArgumentException("Unknown sprite: " + sprite);
+		return index-1;
+	}
+	private static int parseFrame(String name, int start) {
+		long frame = 0;
+		for(int i = start; i < name.length(); i++) {
+			frame = frame*10+(name.charAt(i)-'0');
+			if(frame > Integer.MAX_VALUE) {
+				// Fails the same way it always has
+				return Integer.parseInt(name.substring(start));
 			}
 		}
-		return spriteTable.get(sprite);
+		return (int)frame;
+	}
+	public CompletableFuture<SpriteResource> getSpriteAsync(String sprite) {
+		return this.loadAsync(Category.SPRITES).thenApply(v -> this.getSprite(sprite));
 	}
 	public AudioResource getAudio(String name) {
+		this.ensureLoaded(Category.SOUNDS);
 		if(!audioTable.containsKey(name)) {
 			throw new IllegalArgumentException("Unknown audio track: " + name);
 		}
 		return audioTable.get(name);
 	}
+	public CompletableFuture<AudioResource> getAudioAsync(String name) {
+		return this.loadAsync(Category.SOUNDS).thenApply(v -> this.getAudio(name));
+	}
 	public ObjectResource getObject(String name) {
+		this.ensureLoaded(Category.OBJECTS);
 		return objectTable.get(name);
 	}
+	public CompletableFuture<ObjectResource> getObjectAsync(String name) {
+		return this.loadAsync(Category.OBJECTS).thenApply(v -> objectTable.get(name));
+	}
+	// Only the category whose chunk the pointer is in gets loaded (SOUNDS for AUDO)
 	public Resource getResource(long pointer) {
-		return pointerTable.get(pointer);
+		Category category = this.getCategory(pointer);
+		if(category == null || !categories.contains(this.getLookupStage(category))) {
+			return null;
+		}
+		this.ensureLoaded(this.getLookupStage(category));
+		return this.lookup(category, pointer);
+	}
+	// Entries of AUDO only get their name, flags and file name in the SOUNDS stage
+	private Category getLookupStage(Category category) {
+		return category == Category.AUDIO ? Category.SOUNDS : category;
+	}
+	// TPAG entries live in a TPAGTable instead of a PointerMap
+	private Resource lookup(Category category, long pointer) {
+		if(category == Category.TPAG) {
+			return tpagTable == null ? null : this.getTPAGFromAbsoluteOffset(pointer);
+		}
+		PointerMap<? extends Resource> pointers = pointerTables.get(category);
+		return pointers == null ? null : pointers.get(pointer);
+	}
+	// Same as calling getResource() for each pointer, the result lines up with the input
+	public Resource[] getResources(long... pointers) {
+		Resource[] out = new Resource[pointers.length];
+		Category category, previous = null;
+		for(int i = 0; i < pointers.length; i++) {
+			category = this.getCategory(pointers[i]);
+			if(category == null || !categories.contains(this.getLookupStage(category))) {
+				continue;
+			}
+			// Pointers tend to come in runs from the same chunk
+			if(category != previous) {
+				this.ensureLoaded(this.getLookupStage(category));
+				previous = category;
+			}
+			out[i] = this.lookup(category, pointers[i]);
+		}
+		return out;
+	}
+	public CompletableFuture<Resource> getResourceAsync(long pointer) {
+		Category category = this.getCategory(pointer);
+		if(category == null || !categories.contains(this.getLookupStage(category))) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return this.loadAsync(this.getLookupStage(category)).thenApply(v -> this.getResource(pointer));
+	}
+	// Every chunk and every resource of the categories that have loaded so far, nothing is loaded here.
+	// Call ensureLoaded() first to cover more of the archive, the same index picks them up the next time.
+	// For anything that isn't the exact start of a resource, see getResource().
+	public synchronized AddressIndex getAddressIndex() {
+		if(addressIndex == null) {
+			addressIndex = new AddressIndex(main.getSubChunks());
+		}
+		for(Category category : categories) {
+			if(!indexedCategories.contains(category) && this.isLoaded(category)) {
+				if(category == Category.TPAG) {
+					if(tpagTable != null) {
+						for(int i = 0; i < tpagTable.size(); i++) {
+							addressIndex.add(tpagTable.getPointer(i), tpagTable.get(i));
+						}
+					}
+				}
+				else if(pointerTables.containsKey(category)) {
+					addressIndex.addAll(pointerTables.get(category));
+				}
+				indexedCategories.add(category);
+			}
+		}
+		return addressIndex;
+	}
+	private Category getCategory(long pointer) {
+		IFFChunk chunk;
+		for(Category category : Category.values()) {
+			chunk = this.getChunk(category);
+			if(chunk != null && pointer >= chunk.getAbsoluteOffset() && pointer < chunk.getAbsoluteOffset()+chunk.getLongLength()) {
+				return category;
+			}
+		}
+		return null;
 	}
 	public List<TextureResource> getTextures() {
+		this.ensureLoaded(Category.TEXTURES);
 		return Collections.unmodifiableList(textures);
 	}
 	public List<StringResource> getStrings() {
+		this.ensureLoaded(Category.STRINGS);
 		return Collections.unmodifiableList(strings);
 	}
 	public List<ObjectResource> getObjects() {
+		this.ensureLoaded(Category.OBJECTS);
 		return Collections.unmodifiableList(objects);
 	}
+	// Column access to every object, indices match getObjects()
+	public ObjectTable getObjectTable() {
+		this.ensureLoaded(Category.OBJECTS);
+		return objectColumns;
+	}
+	public List<ObjectResource> findObjects(ObjectTable.Query query) {
+		this.ensureLoaded(Category.OBJECTS);
+		List<ObjectResource> out = new ArrayList<>();
+		objectColumns.forEach(query, i -> out.add(objects.get(i)));
+		return out;
+	}
 	public List<SpriteResource> getSprites() {
+		this.ensureLoaded(Category.SPRITES);
 		return Collections.unmodifiableList(sprites);
 	}
 	public List<AudioResource> getAudio() {
+		this.ensureLoaded(Category.SOUNDS);
 		return Collections.unmodifiableList(audio); 
 	}
 	public List<FontResource> getFonts() {
+		this.ensureLoaded(Category.FONTS);
 		return Collections.unmodifiableList(fonts);
 	}
 	public List<TPAGResource> getTPAGs() {
-		return Collections.unmodifiableList(tpags);
+		this.ensureLoaded(Category.TPAG);
+		// Null if TPAG failed to load before any entries were read
+		return tpagTable == null ? Collections.emptyList() : tpagTable.asList();
+	}
+	// Column access to every TPAG entry without creating a TPAGResource for each one
+	public TPAGTable getTPAGTable() {
+		this.ensureLoaded(Category.TPAG);
+		return tpagTable;
+	}
+	public List<RoomResource> getRooms() {
+		this.ensureLoaded(Category.ROOMS);
+		return Collections.unmodifiableList(rooms);
+	}
+	public RoomResource getRoom(String name) {
+		this.ensureLoaded(Category.ROOMS);
+		return roomTable.get(name);
+	}
+	// Names of every sprite, sound, object, font and room among the selected categories, loading them if needed
+	public NameSearch getNameSearch() {
+		NameSearch search = nameSearch;
+		if(search == null) {
+			Category[] named = {Category.SPRITES, Category.SOUNDS, Category.OBJECTS, Category.FONTS, Category.ROOMS};
+			NameSearch.Builder builder = new NameSearch.Builder();
+			for(Category category : named) {
+				if(categories.contains(category)) {
+					this.ensureLoaded(category);
+				}
+			}
+			synchronized(this) {
+				search = nameSearch;
+				if(search == null) {
+					for(Category category : named) {
+						if(categories.contains(category)) {
+							builder.add(category, this.getNameTable(category));
+						}
+					}
+					nameSearch = search = builder.build();
+				}
+			}
+		}
+		return search;
+	}
+	private Map<String, ? extends Resource> getNameTable(Category category) {
+		switch(category) {
+		case SPRITES: return spriteTable;
+		case SOUNDS: return audioTable;
+		case OBJECTS: return objectTable;
+		case FONTS: return fontTable;
+		case ROOMS: return roomTable;
+		default: return null;
+		}
 	}
 	public IFFChunk getPrimaryChunk() {
 		return main;
@@ -949,8 +1813,18 @@ public class GMDataFile {
 		return resources;
 	}
 	public String getGameTitle() {
+		if(categories.contains(Category.STRINGS)) {
+			this.ensureLoaded(Category.STRINGS);
+		}
 		return game;
 	}
+	public int getGameMakerVersion() {
+		return gameMakerVersion;
+	}
+	// Writer for repacking this archive, already set up to relocate GameMaker pointers
+	public IFFWriter createWriter() {
+		return new IFFWriter(resources).addRelocator(new GMRelocator(this));
+	}
 	
 	public boolean addAudioResourceFile(File file) {
 		if(!this.isMissingAudio()) {
@@ -980,13 +1854,31 @@ public class GMDataFile {
 	public boolean willAutoSearchAudio() {
 		return autoAudioSearch;
 	}
+	public boolean willDecodeTextures() {
+		return options.willDecodeTextures();
+	}
 	public void reloadAudio() {
+		// Let the first load finish so the two don't overlap
+		this.ensureLoaded(Category.SOUNDS);
+		synchronized(this) {
+			addressIndex = null;
+			indexedCategories.clear();
+		}
+		nameSearch = null;
+		
+		// The groups are opened again below
+		for(IFFFile group : audioGroupFiles) {
+			group.close();
+		}
+		audioGroupFiles.clear();
+		
 		this.initAudioGroups();
 		this.initAudio();
 		
 		this.initSoundMetadata();
 	}
 	public boolean isMissingAudio() {
+		this.ensureLoaded(Category.SOUNDS);
 		return missingAudio;
 	}
 	public File getAssetsFolder() {
@@ -995,9 +1887,42 @@ public class GMDataFile {
 	public File getSourceFile() {
 		return file;
 	}
+	// Null unless the archive was opened from inside of a zip
+	public String getEntryName() {
+		return entryName;
+	}
+	public IFFFile.LoadMode getLoadMode() {
+		return loadMode;
+	}
+	// Null if there's no limit
+	public MemoryBudget getMemoryBudget() {
+		return budget;
+	}
+	// A copy of what the archive was opened with
+	public Options getOptions() {
+		return new Options(options);
+	}
+	// Gives everything the archive and its audio groups took out of the memory budget back.
+	// Resources can still be read afterwards, but nothing accounts for them anymore.
+	@Override
+	public void close() {
+		resources.close();
+		for(IFFFile group : audioGroupFiles) {
+			group.close();
+		}
+		audioGroupFiles.clear();
+	}
 	
 	@Override
 	public String toString() {
+		List<Category> summary = new ArrayList<>();
+		for(Category category : new Category[] {Category.SOUNDS, Category.TEXTURES, Category.SPRITES, Category.STRINGS}) {
+			if(categories.contains(category)) {
+				summary.add(category);
+			}
+		}
+		this.ensureLoaded(summary.toArray(new Category[0]));
+		
 		StringBuilder sb = new StringBuilder();
 		sb.append(String.format(
 				"File: %s\nAssets Folder: %s\nGame: %s\nGame Maker Version: %d.%d\nBytecode Version: 0x%02x (%d)\n%sSummary:\n",
@@ -1010,18 +1935,32 @@ public class GMDataFile {
 				bytecodeVersion,
 				buildRecursiveTree(resources.getChunks())
 		));
-		int supplementCount = audioSupplements == null ? 0 : audioSupplements.size();
-		sb.append(String.format("Audio Tracks: %5d (%d external groups loaded)\n", audio.size(), supplementCount));
+		if(summary.contains(Category.SOUNDS)) {
+			int fileCount = audioSupplements == null ? 0 : audioSupplements.size();
+			int entryCount = zipAudioGroups == null ? 0 : zipAudioGroups.size();
+			sb.append(String.format("Audio Tracks: %5d (%d external groups loaded)\n", audio.size(), fileCount+entryCount));
 		
-		if(supplementCount > 0) {
-			for(File file : audioSupplements) {
-				sb.append("- " + file.getName() + "\n");
+			if(fileCount > 0) {
+				for(File file : audioSupplements) {
+					sb.append("- " + file.getName() + "\n");
+				}
+			}
+			if(entryCount > 0) {
+				for(String name : zipAudioGroups) {
+					sb.append("- " + name + " (in " + zip.getFile().getName() + ")\n");
+				}
 			}
 		}
-
-		sb.append(String.format("Textures:     %5d\n", textures.size()));
-		sb.append(String.format("Sprites:      %5d\n", sprites.size()));
-		sb.append(String.format("Strings:      %5d\n", strings.size()));
+		// Categories that weren't selected are left out
+		if(summary.contains(Category.TEXTURES)) {
+			sb.append(String.format("Textures:     %5d\n", textures.size()));
+		}
+		if(summary.contains(Category.SPRITES)) {
+			sb.append(String.format("Sprites:      %5d\n", sprites.size()));
+		}
+		if(summary.contains(Category.STRINGS)) {
+			sb.append(String.format("Strings:      %5d\n", strings.size()));
+		}
 		return sb.toString();
 	}
 	
@@ -0,0 +1,67 @@
+package net.benjaminurquhart.gmparser;
+
+import java.nio.ByteBuffer;
+
+import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.iff.IFFWriter;
+
+// Knows enough about GameMaker chunks to fix up the pointer lists in
+// STRG, TPAG, TXTR and AUDO. Everything else is only let through if nothing
+// it could point into has moved, which in practice means only TXTR and/or
+// AUDO (the last two chunks) changed. Their contents are only ever referenced
+// by their own pointer lists, other chunks use indices.
+public class GMRelocator implements IFFWriter.Relocator {
+
+	private int gameMakerVersion;
+
+	public GMRelocator(GMDataFile dataFile) {
+		this.gameMakerVersion = dataFile.getGameMakerVersion();
+	}
+
+	@Override
+	public boolean relocate(IFFChunk chunk, IFFWriter.Relocation relocation) {
+		switch(chunk.getTypeID()) {
+		case "STRG":
+		case "TPAG":
+		case "AUDO": relocatePointerList(chunk, relocation); return true;
+		case "TXTR": relocateTextures(chunk, relocation); return true;
+		default: return relocation.isConfinedTo("TXTR", "AUDO");
+		}
+	}
+
+	// Returns the old pointers so callers can still find their entries
+	private int[] relocatePointerList(IFFChunk chunk, IFFWriter.Relocation relocation) {
+		int[] pointers = chunk.readInts(4, new int[chunk.readInt(0)]);
+		ByteBuffer contents = null;
+		long pointer, relocated;
+		for(int i = 0; i < pointers.length; i++) {
+			pointer = Integer.toUnsignedLong(pointers[i]);
+			if(pointer == 0) {
+				continue;
+			}
+			relocated = relocation.relocate(pointer);
+			if(relocated != pointer) {
+				if(contents == null) {
+					contents = relocation.edit(chunk);
+				}
+				contents.putInt(4+i*4, (int)relocated);
+			}
+		}
+		return pointers;
+	}
+
+	/* Each entry ends with a pointer to the PNG data, see GMDataFile.initTextures() */
+	private void relocateTextures(IFFChunk chunk, IFFWriter.Relocation relocation) {
+		int[] entries = this.relocatePointerList(chunk, relocation);
+		int objectLength = gameMakerVersion == 2 ? 12 : 8, fieldOffset;
+		long pointer, relocated;
+		for(int entry : entries) {
+			fieldOffset = (int)(Integer.toUnsignedLong(entry) - chunk.getAbsoluteOffset()) + objectLength - 4;
+			pointer = Integer.toUnsignedLong(chunk.readInt(fieldOffset));
+			relocated = relocation.relocate(pointer);
+			if(relocated != pointer) {
+				relocation.edit(chunk).putInt(fieldOffset, (int)relocated);
+			}
+		}
+	}
+}
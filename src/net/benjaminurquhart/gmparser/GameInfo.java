@@ -0,0 +1,55 @@
+package net.benjaminurquhart.gmparser;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+// Metadata read by GMDataFile.probe() without loading the archive
+public class GameInfo {
+
+	private int gameMakerVersion, gameMakerMinor, bytecodeVersion;
+	private List<String> chunks;
+	private String title;
+	private File file;
+
+	GameInfo(File file, String title, int gameMakerVersion, int gameMakerMinor, int bytecodeVersion, List<String> chunks) {
+		this.gameMakerVersion = gameMakerVersion;
+		this.gameMakerMinor = gameMakerMinor;
+		this.bytecodeVersion = bytecodeVersion;
+		this.chunks = chunks;
+		this.title = title;
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+	public String getGameTitle() {
+		return title;
+	}
+	public int getGameMakerVersion() {
+		return gameMakerVersion;
+	}
+	public int getGameMakerMinor() {
+		return gameMakerMinor;
+	}
+	public int getBytecodeVersion() {
+		return bytecodeVersion;
+	}
+	// Type IDs of the chunks inside of FORM, in file order
+	public List<String> getChunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+	@Override
+	public String toString() {
+		return String.format(
+				"GameInfo [title=%s, version=%d.%d, bytecode=0x%02x (%d), chunks=%s]",
+				title,
+				gameMakerVersion,
+				gameMakerMinor,
+				bytecodeVersion,
+				bytecodeVersion,
+				chunks
+		);
+	}
+}
@@ -0,0 +1,146 @@
+package net.benjaminurquhart.gmparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.benjaminurquhart.gmparser.iff.XXHash64;
+
+// Sidecar file holding the offset tables GMDataFile decoded the last time it opened an archive.
+// Each table is a flat int[] whose layout is owned by the init method that wrote it.
+// The cache is only trusted if the archive's size, modification time and header hash all match.
+// GMDataFile loads categories in parallel, so tables can be read and added from any thread.
+class IndexCache {
+
+	private static final int MAGIC = 0x58444947; // GIDX
+	private static final int VERSION = 1;
+
+	// Enough to cover GEN8, which changes with every build
+	private static final int HEADER_SIZE = 0x10000;
+
+	private Map<String, int[]> tables = new HashMap<>();
+	private long size, modified, headerHash;
+	private boolean dirty;
+	private File sidecar;
+
+	public IndexCache(File archive, File sidecar) throws IOException {
+		this.sidecar = sidecar;
+		this.size = archive.length();
+		this.modified = archive.lastModified();
+		this.headerHash = hashHeader(archive);
+
+		if(sidecar.isFile()) {
+			try {
+				this.read();
+			}
+			catch(IOException | RuntimeException e) {
+				System.err.println("WARNING: Ignoring unreadable index cache " + sidecar.getAbsolutePath() + " (" + e + ")");
+				tables.clear();
+				dirty = true;
+			}
+		}
+	}
+
+	// Null if the table has to be rebuilt from the archive
+	public synchronized int[] get(String id) {
+		return tables.get(id);
+	}
+	public synchronized void put(String id, int[] table) {
+		tables.put(id, table);
+		dirty = true;
+	}
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	private static long hashHeader(File archive) throws IOException {
+		try(FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buff = ByteBuffer.allocate((int)Math.min(channel.size(), HEADER_SIZE));
+			while(buff.hasRemaining() && channel.read(buff, buff.position()) >= 0);
+			buff.flip();
+			return XXHash64.hash(buff);
+		}
+	}
+
+	private void read() throws IOException {
+		try(DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if(stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+				dirty = true;
+				return;
+			}
+			if(stream.readLong() != size || stream.readLong() != modified || stream.readLong() != headerHash) {
+				// Stale, the archive changed since this was written
+				dirty = true;
+				return;
+			}
+			int count = stream.readInt(), length;
+			// No table can be longer than what's left of the file, a corrupt length
+			// would otherwise allocate whatever it says before running out of data
+			long remaining = sidecar.length() - 36;
+			String id;
+			int[] table;
+			for(int i = 0; i < count; i++) {
+				id = stream.readUTF();
+				length = stream.readInt();
+				if(length < 0 || 4L*length > remaining) {
+					throw new IOException(String.format("invalid length for table %s: %d (%d bytes left)", id, length, remaining));
+				}
+				remaining -= 4L*length;
+				table = new int[length];
+				for(int j = 0; j < table.length; j++) {
+					table[j] = stream.readInt();
+				}
+				tables.put(id, table);
+			}
+		}
+	}
+
+	// Written to a temporary file first so readers never see half of one
+	public synchronized void save() throws IOException {
+		// A unique temp file in the same directory, so concurrent savers don't write over each other
+		// and the move stays on one file system
+		File dir = sidecar.getAbsoluteFile().getParentFile();
+		Path tmp = Files.createTempFile(dir.toPath(), sidecar.getName(), ".tmp");
+		try {
+			try(DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeLong(size);
+				stream.writeLong(modified);
+				stream.writeLong(headerHash);
+				stream.writeInt(tables.size());
+				for(Map.Entry<String, int[]> entry : tables.entrySet()) {
+					stream.writeUTF(entry.getKey());
+					stream.writeInt(entry.getValue().length);
+					for(int value : entry.getValue()) {
+						stream.writeInt(value);
+					}
+				}
+			}
+			try {
+				Files.move(tmp, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmp, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			// Only still there if something went wrong
+			Files.deleteIfExists(tmp);
+		}
+		dirty = false;
+	}
+}
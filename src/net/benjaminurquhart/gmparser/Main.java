@@ -12,6 +12,8 @@ public class Main {
 
 	public static void main(String[] args) throws Exception {
 		GMDataFile data = new GMDataFile(new File(args[0]), null, true, true);
+		// The address index only covers what has loaded
+		data.ensureLoaded(GMDataFile.Category.values());
 		System.out.println(data);
 		
 
@@ -57,7 +59,6 @@ public class Main {
 	
 	public static void testPointer(GMDataFile data, List<IFFChunk> chunks, IFFChunk chunk, long val) {
 		Resource resource = data.getResource(val);
-		long chunkOffset;
 		
 		StringResource str;
 		
@@ -75,13 +76,19 @@ public class Main {
 			}
 		}
 		else {
-			for(IFFChunk c : chunks) {
-				chunkOffset = c.getOffset() + 16;
-				if(c == chunk) continue;
-				if(c.getTypeID().equals("GEN8") || c.getTypeID().equals("EXTN")) continue;
-				if(val >= chunkOffset && val < chunkOffset + c.getLength()) {
-					System.out.printf(" (Possible %s entry?)", c.getTypeID());
-				}
+			AddressIndex.Location location = data.getAddressIndex().find(val);
+			if(location == null || location.getChunk() == chunk) {
+				return;
+			}
+			String type = location.getChunk().getTypeID();
+			if(type.equals("GEN8") || type.equals("EXTN")) {
+				return;
+			}
+			if(location.getResource() != null) {
+				System.out.printf(" (Inside %s + 0x%x)", location.getResource(), location.getOffset());
+			}
+			else {
+				System.out.printf(" (Possible %s entry?)", type);
 			}
 		}
 	}
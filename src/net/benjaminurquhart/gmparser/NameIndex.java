@@ -0,0 +1,61 @@
+package net.benjaminurquhart.gmparser;
+
+import java.util.Map;
+
+// Open-addressing map from names to resources that can be queried with part of a string.
+// Lookups hash the characters in place, so stripping an extension or frame suffix
+// off of a name doesn't need a substring.
+class NameIndex<T> {
+
+	private String[] keys;
+	private Object[] values;
+	private int[] hashes;
+	private int mask;
+
+	NameIndex(Map<String, T> entries) {
+		// Kept at most half full
+		int capacity = Integer.highestOneBit(Math.max(4, entries.size()*2-1))*2;
+		keys = new String[capacity];
+		values = new Object[capacity];
+		hashes = new int[capacity];
+		mask = capacity-1;
+
+		int index, hash;
+		for(Map.Entry<String, T> entry : entries.entrySet()) {
+			hash = entry.getKey().hashCode();
+			index = mix(hash)&mask;
+			while(keys[index] != null) {
+				index = (index+1)&mask;
+			}
+			keys[index] = entry.getKey();
+			values[index] = entry.getValue();
+			hashes[index] = hash;
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash^(hash>>>16);
+	}
+
+	T get(String name) {
+		return this.get(name, 0, name.length());
+	}
+	// Looks up name.substring(start, end)
+	@SuppressWarnings("unchecked")
+	T get(String name, int start, int end) {
+		// Same as String.hashCode()
+		int hash = 0;
+		for(int i = start; i < end; i++) {
+			hash = 31*hash+name.charAt(i);
+		}
+		int length = end-start, index = mix(hash)&mask;
+		String key;
+		while((key = keys[index]) != null) {
+			if(hashes[index] == hash && key.length() == length && key.regionMatches(0, name, start, length)) {
+				return (T)values[index];
+			}
+			index = (index+1)&mask;
+		}
+		return null;
+	}
+}
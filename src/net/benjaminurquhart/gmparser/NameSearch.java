@@ -0,0 +1,165 @@
+package net.benjaminurquhart.gmparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import net.benjaminurquhart.gmparser.GMDataFile.Category;
+import net.benjaminurquhart.gmparser.resources.Resource;
+
+// Every resource name of a data file in one sorted array, for prefix, glob and substring searches.
+// Results come out sorted by name (then by category). Names are case sensitive.
+// Resources with more than one name (fonts, sounds) show up once per name.
+public class NameSearch {
+
+	public static class Match {
+
+		private Category category;
+		private Resource resource;
+		private String name;
+
+		private Match(String name, Category category, Resource resource) {
+			this.resource = resource;
+			this.category = category;
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+		public Category getCategory() {
+			return category;
+		}
+		public Resource getResource() {
+			return resource;
+		}
+		@Override
+		public String toString() {
+			return String.format("Match [name=%s, category=%s, resource=%s]", name, category, resource);
+		}
+	}
+
+	private static final Category[] CATEGORIES = Category.values();
+
+	private String[] names;
+	private Resource[] resources;
+	private byte[] categories;
+
+	private NameSearch(List<Match> entries) {
+		entries.sort((a,b) -> {
+			int out = a.name.compareTo(b.name);
+			return out == 0 ? a.category.compareTo(b.category) : out;
+		});
+		int size = entries.size();
+		names = new String[size];
+		resources = new Resource[size];
+		categories = new byte[size];
+		Match entry;
+		for(int i = 0; i < size; i++) {
+			entry = entries.get(i);
+			names[i] = entry.name;
+			resources[i] = entry.resource;
+			categories[i] = (byte)entry.category.ordinal();
+		}
+	}
+
+	public static class Builder {
+
+		private List<Match> entries = new ArrayList<>();
+
+		// Null tables (categories that failed to load) are skipped
+		public Builder add(Category category, Map<String, ? extends Resource> table) {
+			if(table != null) {
+				table.forEach((name, resource) -> entries.add(new Match(name, category, resource)));
+			}
+			return this;
+		}
+		public NameSearch build() {
+			return new NameSearch(entries);
+		}
+	}
+
+	// Every name that starts with prefix, "" gives everything
+	public Stream<Match> prefix(String prefix, Category... categories) {
+		int start = this.lowerBound(prefix);
+		int end = start;
+		while(end < names.length && names[end].startsWith(prefix)) {
+			end++;
+		}
+		return this.stream(start, end, categories);
+	}
+	// * matches any number of characters, ? matches exactly one
+	public Stream<Match> glob(String pattern, Category... categories) {
+		// Anything before the first wildcard narrows it down to a prefix range
+		int wildcard = 0;
+		while(wildcard < pattern.length() && pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?') {
+			wildcard++;
+		}
+		String prefix = pattern.substring(0, wildcard);
+		int start = this.lowerBound(prefix);
+		int end = start;
+		while(end < names.length && names[end].startsWith(prefix)) {
+			end++;
+		}
+		return this.stream(start, end, categories).filter(match -> matches(pattern, match.name));
+	}
+	public Stream<Match> contains(String text, Category... categories) {
+		return this.stream(0, names.length, categories).filter(match -> match.name.contains(text));
+	}
+	public int size() {
+		return names.length;
+	}
+
+	private Stream<Match> stream(int start, int end, Category... categories) {
+		Set<Category> filter = categories.length == 0 ? null : EnumSet.copyOf(Arrays.asList(categories));
+		IntStream indices = IntStream.range(start, end);
+		if(filter != null) {
+			indices = indices.filter(i -> filter.contains(CATEGORIES[this.categories[i]]));
+		}
+		return indices.mapToObj(i -> new Match(names[i], CATEGORIES[this.categories[i]], resources[i]));
+	}
+	// Index of the first name >= key
+	private int lowerBound(String key) {
+		int index = Arrays.binarySearch(names, key);
+		if(index < 0) {
+			return -index-1;
+		}
+		// Step back over entries with the same name in other categories
+		while(index > 0 && names[index-1].equals(key)) {
+			index--;
+		}
+		return index;
+	}
+	// Iterative glob match, backtracks to the last * on a mismatch
+	private static boolean matches(String pattern, String name) {
+		int p = 0, n = 0, star = -1, mark = 0;
+		char c;
+		while(n < name.length()) {
+			c = p < pattern.length() ? pattern.charAt(p) : 0;
+			if(p < pattern.length() && (c == '?' || (c != '*' && c == name.charAt(n)))) {
+				p++;
+				n++;
+			}
+			else if(p < pattern.length() && c == '*') {
+				star = p++;
+				mark = n;
+			}
+			else if(star >= 0) {
+				p = star+1;
+				n = ++mark;
+			}
+			else {
+				return false;
+			}
+		}
+		while(p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
@@ -0,0 +1,58 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Reads straight out of a buffer (heap, direct or mapped) instead of copying it into an array first
+public class ByteBufferInputStream extends InputStream {
+
+	private ByteBuffer buffer;
+	private int mark;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		if(buffer == null) {
+			throw new IllegalArgumentException("buffer cannot be null");
+		}
+		this.buffer = buffer.duplicate();
+		this.mark = this.buffer.position();
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+	}
+	@Override
+	public int read(byte[] buff, int offset, int length) {
+		if(length == 0) {
+			return 0;
+		}
+		if(!buffer.hasRemaining()) {
+			return -1;
+		}
+		length = Math.min(length, buffer.remaining());
+		buffer.get(buff, offset, length);
+		return length;
+	}
+	@Override
+	public long skip(long n) {
+		int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	@Override
+	public void mark(int readLimit) {
+		mark = buffer.position();
+	}
+	@Override
+	public void reset() {
+		buffer.position(mark);
+	}
+}
@@ -0,0 +1,105 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Sequential reader over a chunk. None of the reads allocate anything,
+// and bulk reads only check their bounds once for the whole range.
+public class ChunkCursor {
+
+	private ByteBuffer buffer;
+	private IFFChunk chunk;
+
+	// Only set for chunks over 2 GB, buffer is then the segment the cursor is in
+	private ByteBuffer[] segments;
+	private long base;
+
+	protected ChunkCursor(IFFChunk chunk, ByteBuffer buffer, long offset) {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.chunk = chunk;
+
+		this.seek(offset);
+	}
+	protected ChunkCursor(IFFChunk chunk, ByteBuffer[] segments, long offset) {
+		this.segments = segments;
+		this.chunk = chunk;
+
+		this.seek(offset);
+	}
+	// Segments overlap by a few bytes, so a read that starts in one never has to cross into the next
+	private ByteBuffer buffer() {
+		if(segments != null && buffer.position() >= IFFChunk.SEGMENT_SIZE) {
+			this.seek(this.position());
+		}
+		return buffer;
+	}
+
+	public IFFChunk getChunk() {
+		return chunk;
+	}
+	public long position() {
+		return base+buffer.position();
+	}
+	public int remaining() {
+		return (int)Math.min(Integer.MAX_VALUE, chunk.getLongLength()-this.position());
+	}
+	public ChunkCursor seek(long offset) {
+		if(offset != chunk.getLongLength()) {
+			chunk.checkBounds(offset, 1);
+		}
+		if(segments != null) {
+			int segment = (int)(offset >>> IFFChunk.SEGMENT_SHIFT);
+			base = (long)segment << IFFChunk.SEGMENT_SHIFT;
+			buffer = segments[segment].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			offset -= base;
+		}
+		buffer.position((int)offset);
+		return this;
+	}
+	public ChunkCursor skip(long bytes) {
+		return this.seek(this.position()+bytes);
+	}
+	public byte readByte() {
+		chunk.checkBounds(this.position(), 1);
+		return this.buffer().get();
+	}
+	public short readShort() {
+		chunk.checkBounds(this.position(), 2);
+		return this.buffer().getShort();
+	}
+	public int readInt16() {
+		return this.readShort()&0xffff;
+	}
+	public int readInt() {
+		chunk.checkBounds(this.position(), 4);
+		return this.buffer().getInt();
+	}
+	// GameMaker stores booleans as 4 byte integers
+	public boolean readBoolean() {
+		return this.readInt() != 0;
+	}
+	public float readFloat() {
+		return Float.intBitsToFloat(this.readInt());
+	}
+	public int[] readInts(int[] dest) {
+		return this.readInts(dest, 0, dest.length);
+	}
+	public int[] readInts(int[] dest, int destOffset, int count) {
+		chunk.readInts(this.position(), dest, destOffset, count);
+		this.skip(4L*count);
+		return dest;
+	}
+	public short[] readShorts(short[] dest) {
+		return this.readShorts(dest, 0, dest.length);
+	}
+	public short[] readShorts(short[] dest, int destOffset, int count) {
+		chunk.readShorts(this.position(), dest, destOffset, count);
+		this.skip(2L*count);
+		return dest;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ChunkCursor [chunk=%s, position=0x%08x]", chunk.getTypeID(), this.position());
+	}
+}
@@ -2,45 +2,135 @@ package net.benjaminurquhart.gmparser.iff;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class IFFChunk {
 
+	// GameMaker never nests chunks inside of these, so there's no point in looking
+	private static final Set<String> LEAF_CHUNKS = new HashSet<>(Arrays.asList(
+			"GEN8", "OPTN", "LANG", "EXTN", "SOND", "AGRP", "SPRT", "BGND", "PATH",
+			"SCPT", "GLOB", "SHDR", "FONT", "TMLN", "OBJT", "ROOM", "DAFL", "EMBI",
+			"TPAG", "TGIN", "CODE", "VARI", "FUNC", "STRG", "TXTR", "AUDO", "ACRV",
+			"SEQN", "TAGS", "FEAT", "FEDS", "PSEM", "PSYS", "ARCV"
+	));
+
+	// Chunks that don't fit in a single buffer are split into 1 GB segments.
+	// Each segment overlaps the next by a few bytes so primitive reads never
+	// have to be stitched together from two segments.
+	static final int SEGMENT_SHIFT = 30;
+	static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	static final int SEGMENT_OVERLAP = 8;
+	static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
 	private String typeID;
-	private byte[] contents;
-	private boolean hasSubChunks;
+	private volatile ByteBuffer[] segments;
+	// Written after subChunks, so seeing it set also publishes subChunks
+	private volatile boolean scannedSubChunks;
+	private long length;
 	
 	private IFFFile subChunks, origin;
 	private IFFChunk parent;
 	private long offset;
 	
+	private volatile boolean hashed;
+	private long hash;
+
 	public static boolean isValidOffset(long offset) {
 		return (offset&3) == 0;
 	}
+	public static boolean isLeafChunk(String typeID) {
+		return LEAF_CHUNKS.contains(typeID);
+	}
 	
 	protected IFFChunk(String typeID, byte[] contents, IFFFile origin, long offset) {
-		this(typeID, contents, (IFFChunk) null, offset);
-		this.origin = origin;
+		this(typeID, ByteBuffer.wrap(contents), origin, offset);
 	}
 	protected IFFChunk(String typeID, byte[] contents, IFFChunk parent, long offset) {
-		this.hasSubChunks = true;
-		this.contents = contents;
+		this(typeID, ByteBuffer.wrap(contents), parent, offset);
+	}
+	protected IFFChunk(String typeID, ByteBuffer contents, IFFFile origin, long offset) {
+		this(typeID, contents, origin, null, offset);
+	}
+	protected IFFChunk(String typeID, ByteBuffer contents, IFFChunk parent, long offset) {
+		this(typeID, contents, parent == null ? null : parent.origin, parent, offset);
+	}
+	private IFFChunk(String typeID, ByteBuffer contents, IFFFile origin, IFFChunk parent, long offset) {
+		this(typeID, contents.remaining(), origin, parent, offset);
+		this.segments = new ByteBuffer[] {contents.slice().order(ByteOrder.LITTLE_ENDIAN)};
+	}
+	// Contents are loaded by the origin the first time they're needed
+	IFFChunk(String typeID, long length, IFFFile origin, IFFChunk parent, long offset) {
+		this.origin = origin;
 		this.parent = parent;
 		this.typeID = typeID;
 		this.offset = offset;
-		
-		this.origin = parent == null ? null : parent.origin;
-		
-		try {
-			this.subChunks = new IFFFile(contents);
-		}
-		catch(Exception e) {
-			if(e.getCause() instanceof OutOfMemoryError) {
-				e.printStackTrace();
+		this.length = length;
+	}
+	private ByteBuffer[] segments() {
+		ByteBuffer[] segments = this.segments;
+		if(segments == null) {
+			synchronized(this) {
+				segments = this.segments;
+				if(segments == null) {
+					ByteBuffer[] parentSegments = parent == null ? null : parent.segments;
+					if(parentSegments != null && parentSegments.length == 1) {
+						ByteBuffer contents = parentSegments[0].duplicate();
+						contents.position((int)offset+8);
+						contents = contents.slice();
+						contents.limit((int)length);
+						segments = new ByteBuffer[] {contents};
+					}
+					else {
+						segments = origin.load(this);
+					}
+					for(ByteBuffer segment : segments) {
+						segment.order(ByteOrder.LITTLE_ENDIAN);
+					}
+					this.segments = segments;
+				}
+			}
+		}
+		return segments;
+	}
+	// The whole chunk as one buffer, only possible for chunks under 2 GB
+	private ByteBuffer contents() {
+		ByteBuffer[] segments = this.segments();
+		if(segments.length > 1) {
+			throw new IllegalStateException(String.format(
+					"chunk %s is too large (%d bytes) to be viewed as a single buffer, use asByteBuffers() or long offsets instead",
+					typeID,
+					length
+			));
+		}
+		return segments[0];
+	}
+	void setSegments(ByteBuffer[] segments) {
+		for(ByteBuffer segment : segments) {
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		this.segments = segments;
+	}
+	void setSubChunks(IFFFile subChunks) {
+		this.subChunks = subChunks;
+		this.scannedSubChunks = true;
+	}
+	// Sub-chunks are only looked for the first time someone asks for them
+	private IFFFile getSubChunkFile() {
+		if(!scannedSubChunks) {
+			synchronized(this) {
+				if(!scannedSubChunks) {
+					if(!isLeafChunk(typeID) && !this.isSegmented() && IFFFile.containsChunks(this.contents())) {
+						subChunks = new IFFFile(this.contents().duplicate(), this);
+					}
+					scannedSubChunks = true;
+				}
 			}
-			this.hasSubChunks = false;
 		}
+		return subChunks;
 	}
 	public IFFChunk getParent() {
 		return parent;
@@ -48,8 +138,18 @@ public class IFFChunk {
 	public IFFFile getOrigin() {
 		return origin;
 	}
+	// Only heap-backed chunks that own their entire array avoid a copy here.
+	// Prefer asByteBuffer() or read() for mapped archives.
 	public byte[] getContents() {
-		return contents;
+		ByteBuffer contents = this.contents();
+		if(contents.hasArray() && contents.arrayOffset() == 0 && contents.array().length == contents.capacity()) {
+			return contents.array();
+		}
+		byte[] out = new byte[contents.capacity()];
+		ByteBuffer buff = contents.duplicate();
+		buff.clear();
+		buff.get(out);
+		return out;
 	}
 	public String getTypeID() {
 		return typeID;
@@ -57,46 +157,255 @@ public class IFFChunk {
 	public long getOffset() {
 		return offset;
 	}
+	// Offset of the contents from the start of the source data
+	public long getAbsoluteOffset() {
+		return (parent == null ? 0 : parent.getAbsoluteOffset()) + offset + 8;
+	}
 	public int getLength() {
-		return contents.length;
+		if(length > Integer.MAX_VALUE) {
+			throw new IllegalStateException(String.format("chunk %s is too large (%d bytes) for an int length, use getLongLength() instead", typeID, length));
+		}
+		return (int)length;
+	}
+	public long getLongLength() {
+		return length;
+	}
+	public boolean isSegmented() {
+		return length > Integer.MAX_VALUE;
+	}
+	public boolean isLoaded() {
+		return segments != null;
 	}
 	public List<IFFChunk> getSubChunks() {
-		if(this.hasSubChunks) {
+		IFFFile subChunks = this.getSubChunkFile();
+		if(subChunks != null) {
 			return subChunks.getChunks();
 		}
 		return Collections.emptyList();
 	}
 	public IFFChunk getSubChunk(String typeID) {
-		if(subChunks == null || !this.hasSubChunks) {
+		IFFFile subChunks = this.getSubChunkFile();
+		if(subChunks == null) {
 			throw new IllegalStateException("chunk " + this.getTypeID() + " does not contain any subchunks");
 		}
 		return subChunks.getChunk(typeID);
 	}
 	public boolean hasSubChunk(String typeID) {
-		return subChunks != null && hasSubChunks && subChunks.hasChunk(typeID);
+		IFFFile subChunks = this.getSubChunkFile();
+		return subChunks != null && subChunks.hasChunk(typeID);
 	}
+	// Read-only view of the chunk contents, no copying involved
 	public ByteBuffer asByteBuffer() {
-		ByteBuffer buff = ByteBuffer.wrap(contents);
-		buff.order(ByteOrder.LITTLE_ENDIAN);
-		return buff;
+		return this.contents().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	// Read-only view of part of the chunk. Only ranges that straddle two segments of
+	// a chunk over 2 GB have to be copied.
+	public ByteBuffer asByteBuffer(long offset, int length) {
+		if(length == 0) {
+			return ByteBuffer.allocate(0).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		this.checkBounds(offset, length);
+		ByteBuffer[] segments = this.segments();
+		long start = offset&SEGMENT_MASK;
+		ByteBuffer view;
+		if(segments.length == 1) {
+			view = segments[0].asReadOnlyBuffer();
+			start = offset;
+		}
+		else if(start + length <= SEGMENT_SIZE + SEGMENT_OVERLAP) {
+			view = segments[(int)(offset>>>SEGMENT_SHIFT)].asReadOnlyBuffer();
+		}
+		else {
+			return ByteBuffer.wrap(this.read(offset, length, new byte[length])).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		view.position((int)start);
+		view = view.slice();
+		view.limit(length);
+		return view.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	// Read-only views of the chunk contents in order, one per segment.
+	// Chunks under 2 GB only have a single segment.
+	public ByteBuffer[] asByteBuffers() {
+		ByteBuffer[] segments = this.segments(), out = new ByteBuffer[segments.length];
+		ByteBuffer view;
+		for(int i = 0; i < out.length; i++) {
+			view = segments[i].asReadOnlyBuffer();
+			if(out.length > 1) {
+				view.limit((int)Math.min(SEGMENT_SIZE, length - ((long)i << SEGMENT_SHIFT)));
+			}
+			out[i] = view.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return out;
+	}
+	public ChunkCursor cursor() {
+		return this.cursor(0);
+	}
+	public ChunkCursor cursor(long offset) {
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			return new ChunkCursor(this, segments[0].duplicate(), offset);
+		}
+		return new ChunkCursor(this, segments, offset);
 	}
 	public int readInt(int offset) {
-		byte[] bytes = this.read(offset, 4, new byte[4]);
-		
-		return ((bytes[3]&0xff)<<24)|((bytes[2]&0xff)<<16)|((bytes[1]&0xff)<<8)|(bytes[0]&0xff);
+		return this.readInt((long)offset);
+	}
+	public int readInt(long offset) {
+		this.checkBounds(offset, 4);
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			return segments[0].getInt((int)offset);
+		}
+		return segments[(int)(offset>>>SEGMENT_SHIFT)].getInt((int)(offset&SEGMENT_MASK));
 	}
 	public byte readByte(int offset) {
-		return this.read(offset, 1, new byte[1])[0];
+		return this.readByte((long)offset);
+	}
+	public byte readByte(long offset) {
+		this.checkBounds(offset, 1);
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			return segments[0].get((int)offset);
+		}
+		return segments[(int)(offset>>>SEGMENT_SHIFT)].get((int)(offset&SEGMENT_MASK));
 	}
 	public int readInt16(int offset) {
-		byte[] bytes = this.read(offset, 2, new byte[2]);
-		
-		return ((bytes[1]&0xff)<<8)|(bytes[0]&0xff);
+		return this.readInt16((long)offset);
+	}
+	public int readInt16(long offset) {
+		this.checkBounds(offset, 2);
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			return segments[0].getShort((int)offset)&0xffff;
+		}
+		return segments[(int)(offset>>>SEGMENT_SHIFT)].getShort((int)(offset&SEGMENT_MASK))&0xffff;
+	}
+	public int[] readInts(int offset, int[] dest) {
+		return this.readInts((long)offset, dest, 0, dest.length);
+	}
+	public int[] readInts(long offset, int[] dest) {
+		return this.readInts(offset, dest, 0, dest.length);
+	}
+	public int[] readInts(int offset, int[] dest, int destOffset, int count) {
+		return this.readInts((long)offset, dest, destOffset, count);
+	}
+	public int[] readInts(long offset, int[] dest, int destOffset, int count) {
+		if(count == 0) {
+			return dest;
+		}
+		this.checkBounds(offset, 4L*count);
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			ByteBuffer buff = segments[0].duplicate();
+			buff.position((int)offset);
+			buff.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dest, destOffset, count);
+		}
+		else {
+			for(int i = 0; i < count; i++, offset += 4) {
+				dest[destOffset+i] = segments[(int)(offset>>>SEGMENT_SHIFT)].getInt((int)(offset&SEGMENT_MASK));
+			}
+		}
+		return dest;
+	}
+	public short[] readShorts(int offset, short[] dest) {
+		return this.readShorts((long)offset, dest, 0, dest.length);
+	}
+	public short[] readShorts(long offset, short[] dest) {
+		return this.readShorts(offset, dest, 0, dest.length);
+	}
+	public short[] readShorts(int offset, short[] dest, int destOffset, int count) {
+		return this.readShorts((long)offset, dest, destOffset, count);
+	}
+	public short[] readShorts(long offset, short[] dest, int destOffset, int count) {
+		if(count == 0) {
+			return dest;
+		}
+		this.checkBounds(offset, 2L*count);
+		ByteBuffer[] segments = this.segments();
+		if(segments.length == 1) {
+			ByteBuffer buff = segments[0].duplicate();
+			buff.position((int)offset);
+			buff.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(dest, destOffset, count);
+		}
+		else {
+			for(int i = 0; i < count; i++, offset += 2) {
+				dest[destOffset+i] = segments[(int)(offset>>>SEGMENT_SHIFT)].getShort((int)(offset&SEGMENT_MASK));
+			}
+		}
+		return dest;
 	}
 	public byte[] read(int offset, int length, byte[] dest) {
+		return this.read((long)offset, length, dest, 0);
+	}
+	public byte[] read(long offset, int length, byte[] dest) {
 		return this.read(offset, length, dest, 0);
 	}
 	public byte[] read(int offset, int length, byte[] dest, int destOffset) {
+		return this.read((long)offset, length, dest, destOffset);
+	}
+	public byte[] read(long offset, int length, byte[] dest, int destOffset) {
+		this.checkBounds(offset, length);
+		ByteBuffer[] segments = this.segments();
+		ByteBuffer buff;
+		int read;
+		if(segments.length == 1) {
+			buff = segments[0].duplicate();
+			buff.position((int)offset);
+			buff.get(dest, destOffset, length);
+			return dest;
+		}
+		while(length > 0) {
+			buff = segments[(int)(offset>>>SEGMENT_SHIFT)].duplicate();
+			buff.position((int)(offset&SEGMENT_MASK));
+			read = (int)Math.min(length, SEGMENT_SIZE - (offset&SEGMENT_MASK));
+			buff.get(dest, destOffset, read);
+			destOffset += read;
+			offset += read;
+			length -= read;
+		}
+		return dest;
+	}
+	// xxHash64 of the whole chunk, only computed once
+	public long getHash() {
+		if(!hashed) {
+			synchronized(this) {
+				if(!hashed) {
+					hash = length == 0 ? XXHash64.hash(new byte[0]) : this.hash(0, length);
+					hashed = true;
+				}
+			}
+		}
+		return hash;
+	}
+	// Hashes a range of the chunk directly from its buffers without copying it
+	public long hash(long offset, long length) {
+		this.checkBounds(offset, length);
+		ByteBuffer[] segments = this.segments();
+		XXHash64 hasher = new XXHash64();
+		ByteBuffer buff;
+		long read;
+		if(segments.length == 1) {
+			buff = segments[0].duplicate();
+			buff.position((int)offset);
+			buff.limit((int)(offset + length));
+			hasher.update(buff);
+			return hasher.getValue();
+		}
+		while(length > 0) {
+			buff = segments[(int)(offset>>>SEGMENT_SHIFT)].duplicate();
+			read = Math.min(length, SEGMENT_SIZE - (offset&SEGMENT_MASK));
+			buff.position((int)(offset&SEGMENT_MASK));
+			buff.limit((int)(buff.position() + read));
+			hasher.update(buff);
+			offset += read;
+			length -= read;
+		}
+		return hasher.getValue();
+	}
+	public boolean isWithinBounds(long offset) {
+		return offset >= 0 && offset < length;
+	}
+	void checkBounds(long offset, long length) {
 		if(offset < 0) {
 			throw new IllegalArgumentException(String.format("Relative offset %d (0x%08x) < 0", offset, offset));
 		}
@@ -109,18 +418,13 @@ public class IFFChunk {
 					offset,
 					offset,
 					length,
-					contents.length,
+					this.length,
 					typeID
 			));
 		}
-		System.arraycopy(contents, offset, dest, destOffset, length);
-		return dest;
-	}
-	public boolean isWithinBounds(long offset) {
-		return offset >= 0 && offset < contents.length;
 	}
 	@Override
 	public String toString() {
-		return String.format("%s (0x%08x bytes, found 0x%08x bytes from start of parent (%d children))", typeID, contents.length, offset, this.getSubChunks().size());
+		return String.format("%s (0x%08x bytes, found 0x%08x bytes from start of parent (%d children))", typeID, length, offset, this.getSubChunks().size());
 	}
 }
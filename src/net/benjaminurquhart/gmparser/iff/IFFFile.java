@@ -1,124 +1,279 @@
 package net.benjaminurquhart.gmparser.iff;
 
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 // https://en.wikipedia.org/wiki/Interchange_File_Format
-public class IFFFile {
+public class IFFFile implements Closeable {
 	
-	private Map<String, IFFChunk> chunkMap;
-	private List<IFFChunk> chunks;
+	public static enum LoadMode {
+		// Every chunk is copied onto the heap
+		HEAP,
+		// Chunks are memory-mapped from the file instead of being copied
+		MAPPED,
+		// Only the chunk headers are read up front, contents are loaded
+		// the first time something touches the chunk
+		LAZY,
+		// Chunk contents are copied into direct buffers so the bulk of the
+		// data lives off-heap, only the chunk tree itself is kept on the heap.
+		// Direct memory is capped by -XX:MaxDirectMemorySize, which defaults to -Xmx,
+		// so set it to at least the archive size when keeping -Xmx small.
+		DIRECT;
+	}
+
+	// Chunks that only hold other chunks, the lazy scan looks inside of these
+	private static final Set<String> CONTAINER_CHUNKS = new HashSet<>(Arrays.asList("FORM", "LIST"));
+
+	private Map<String, IFFChunk> chunkMap = new HashMap<>();
+	private List<IFFChunk> chunks = new ArrayList<>();
+
+	private LoadMode mode = LoadMode.HEAP;
+	private MemoryBudget budget;
+	// What the chunks took out of the budget, only counted on the top-level file
+	private final AtomicLong reserved = new AtomicLong();
+	private IFFFile root = this;
+	private File file;
+	private long base;
 	
 	public IFFFile(byte[] bytes) {
-		this(new ByteArrayInputStream(bytes), null);
+		this.parse(ByteBuffer.wrap(bytes), null);
 	}
 	public IFFFile(File file) throws FileNotFoundException {
-		this(new FileInputStream(file), null);
+		this.parse(new FileInputStream(file), -1, null);
+		this.file = file;
+	}
+	public IFFFile(File file, LoadMode mode) throws IOException {
+		this(file, 0, file.length(), mode);
+	}
+	// Archive stored somewhere inside of a larger file, like an uncompressed zip entry.
+	// Chunk offsets stay relative to the start of the archive.
+	public IFFFile(File file, long start, long length, LoadMode mode) throws IOException {
+		this(file, start, length, mode, null);
+	}
+	// Chunks that don't fit in the budget are mapped instead of being loaded, see MemoryBudget
+	public IFFFile(File file, LoadMode mode, MemoryBudget budget) throws IOException {
+		this(file, 0, file.length(), mode, budget);
+	}
+	public IFFFile(File file, long start, long length, LoadMode mode, MemoryBudget budget) throws IOException {
+		if(mode == null) {
+			throw new IllegalArgumentException("mode cannot be null");
+		}
+		if(start < 0 || length < 0) {
+			throw new IllegalArgumentException("invalid region: " + start + " + " + length);
+		}
+		this.budget = budget;
+		this.mode = mode;
+		// Kept in every mode so IFFWriter can copy unchanged chunks straight from the file
+		this.file = file;
+		this.base = start;
+
+		try {
+			if(mode == LoadMode.HEAP && budget == null) {
+				try(FileInputStream stream = new FileInputStream(file)) {
+					stream.getChannel().position(start);
+					this.parse(stream, length, null);
+				}
+			}
+			else {
+				// With a budget, heap loading goes through the header scan so anything too big can be mapped
+				this.scan(file, start, length);
+			}
+		}
+		catch(Throwable e) {
+			// Nobody gets a file to close if it fails to load
+			this.close();
+			throw e;
+		}
 	}
 	public IFFFile(InputStream stream) {
-		this(stream, null);
+		this.parse(stream, -1, null);
+	}
+	// Streams can't be mapped, so chunks that don't fit in the budget fail before they're allocated
+	public IFFFile(InputStream stream, MemoryBudget budget) {
+		this(stream, LoadMode.HEAP, budget);
+	}
+	// Only DIRECT changes anything here, MAPPED and LAZY have nothing to map so they load onto the heap
+	public IFFFile(InputStream stream, LoadMode mode, MemoryBudget budget) {
+		if(mode == null) {
+			throw new IllegalArgumentException("mode cannot be null");
+		}
+		this.mode = mode == LoadMode.DIRECT ? LoadMode.DIRECT : LoadMode.HEAP;
+		this.budget = budget;
+		try {
+			this.parse(stream, -1, null);
+		}
+		catch(Throwable e) {
+			this.close();
+			throw e;
+		}
 	}
 	protected IFFFile(InputStream stream, IFFChunk parent) {
+		this.parse(stream, -1, parent);
+	}
+	protected IFFFile(ByteBuffer buffer, IFFChunk parent) {
+		this.mode = parent == null || parent.getOrigin() == null ? LoadMode.HEAP : parent.getOrigin().getLoadMode();
+		this.parse(buffer, parent);
+	}
+
+	// Table of contents for a container chunk found by the header scan
+	private IFFFile(FileChannel channel, long start, long end, IFFChunk parent) throws IOException {
+		this.root = parent.getOrigin();
+		this.budget = root.getMemoryBudget();
+		this.mode = root.getLoadMode();
+		this.scan(channel, start, end, parent);
+	}
+
+	// Chunks over 2 GB are mapped as overlapping segments, see IFFChunk
+	private static ByteBuffer[] map(FileChannel channel, long position, long length) throws IOException {
+		if(length <= Integer.MAX_VALUE) {
+			return new ByteBuffer[] {channel.map(MapMode.READ_ONLY, position, length)};
+		}
+		ByteBuffer[] segments = new ByteBuffer[(int)((length + IFFChunk.SEGMENT_SIZE - 1) >>> IFFChunk.SEGMENT_SHIFT)];
+		long start;
+		for(int i = 0; i < segments.length; i++) {
+			start = (long)i << IFFChunk.SEGMENT_SHIFT;
+			segments[i] = channel.map(MapMode.READ_ONLY, position + start, Math.min(IFFChunk.SEGMENT_SIZE + IFFChunk.SEGMENT_OVERLAP, length - start));
+		}
+		return segments;
+	}
+
+	// length < 0 means read until the stream runs out
+	private void parse(InputStream stream, long length, IFFChunk parent) {
+		try {
+			new IFFStreamReader(stream, length).accept(new IFFVisitor() {
+				@Override
+				public Action startChunk(String typeID, long offset, long length) {
+					return Action.READ;
+				}
+				@Override
+				public void visitContents(String typeID, long offset, long length, InputStream contents) throws IOException {
+					if(length > Integer.MAX_VALUE) {
+						throw new IllegalStateException(String.format("chunk '%s' is too large to be loaded onto the heap (%d bytes), use LoadMode.MAPPED or LoadMode.LAZY instead", typeID, length));
+					}
+					if(budget != null) {
+						budget.reserve(length, "chunk '" + typeID + "'");
+					}
+					try {
+						this.load(typeID, offset, length, contents);
+					}
+					catch(Throwable e) {
+						if(budget != null) {
+							budget.release(length);
+						}
+						throw e;
+					}
+					if(budget != null) {
+						root.reserved.addAndGet(length);
+					}
+				}
+				private void load(String typeID, long offset, long length, InputStream contents) throws IOException {
+					byte[] buff;
+					int total = 0, read;
+					if(mode == LoadMode.DIRECT) {
+						ByteBuffer direct = ByteBuffer.allocateDirect((int)length);
+						ReadableByteChannel channel = Channels.newChannel(contents);
+						while(direct.hasRemaining()) {
+							if(channel.read(direct) == -1) {
+								throw new IllegalStateException("unexpected end of data while processing chunk '" + typeID + ",' expected " + length + " bytes, got " + direct.position());
+							}
+						}
+						direct.flip();
+						IFFFile.this.addChunk(typeID, direct, parent, offset);
+						return;
+					}
+					try {
+						buff = new byte[(int)length];
+					}
+					catch(OutOfMemoryError e) {
+						System.err.println("Chunk '" + typeID + "' is too large! (Size: " + length + ")");
+						throw e;
+					}
+					while(total < buff.length) {
+						read = contents.read(buff, total, buff.length-total);
+						if(read == -1) {
+							throw new IllegalStateException("unexpected end of data while processing chunk '" + typeID + ",' expected " + length + " bytes, got " + total);
+						}
+						total += read;
+					}
+					IFFFile.this.addChunk(typeID, ByteBuffer.wrap(buff), parent, offset);
+				}
+			});
+		}
+		catch(IllegalStateException | IllegalArgumentException e) {
+			throw e;
+		}
+		catch(Throwable e) {
+			throw new IllegalStateException("internal exception while parsing data", e);
+		}
+		finally {
+			try {
+				stream.close();
+			}
+			catch(Exception e) {}
+		}
+	}
+
+	// Same as above, but chunks are slices of the provided buffer rather than copies
+	private void parse(ByteBuffer buffer, IFFChunk parent) {
 		try {
-			this.chunkMap = new HashMap<>();
-			this.chunks = new ArrayList<>();
-			
-			byte[] smallBuff = new byte[4], buff;
-			long totalRead = 0, offset;
-			int chunkSize, read, total;
+			byte[] smallBuff = new byte[4];
+			int chunkSize, position = buffer.position(), end = buffer.limit(), start = position;
 			String chunkID;
-			
-			IFFChunk chunk;
-			
-			if(stream.available() < 8 && parent == null) {
-				throw new IllegalArgumentException("Provided data source is too short to represent a valid IFF archive (" + stream.available() + " < 8)");
-			}
-			
-			while(stream.available() > 0) {
-				total = 0;
-				offset = totalRead;
-				read = stream.read(smallBuff, 0, 4);
-				if(read != 4) {
-					throw new IllegalStateException("invalid chunk ID, expected 4 bytes, got " + read);
+
+			ByteBuffer slice;
+
+			if(end - position < 8) {
+				throw new IllegalArgumentException("Provided data source is too short to represent a valid IFF archive (" + (end - position) + " < 8)");
+			}
+
+			while(position < end) {
+				if(end - position < 4) {
+					throw new IllegalStateException("invalid chunk ID, expected 4 bytes, got " + (end - position));
 				}
-				totalRead+=read;
-				chunkID = new String(smallBuff, Charset.forName("UTF-8"));
-				
+				buffer.position(position);
+				buffer.get(smallBuff, 0, 4);
+				chunkID = readChunkID(smallBuff);
+
 				// I'm not dealing with this
 				if(chunkID.equals("RASP")) {
 					System.err.println("Found RASP chunk, exiting early");
 					break;
 				}
-				
-				// Technically, a FourCC with unprintable characters is allowed.
-				// However, Game Maker archives only have printable characters.
-				// Since that's what we're interested in, we reject otherwise
-				// valid files with nonprintable chunk IDs.
-				// https://en.wikipedia.org/wiki/FourCC
-				if(!chunkID.matches("\\w{4}")) {
-					throw new IllegalStateException(
-							String.format("invalid chunk ID, contains illegal bytes (Bytes: 0x%02x 0x%02x 0x%02x 0x%02x)", 
-									smallBuff[0],
-									smallBuff[1],
-									smallBuff[2],
-									smallBuff[3]
-							)
-					);
-				}
-				read = stream.read(smallBuff, 0, 4);
-				if(read != 4) {
-					throw new IllegalStateException("invalid chunk size for chunk '" + chunkID + ",' expected 4 bytes, got " + read);
-				}
-				totalRead+=read;
-				chunkSize = ((smallBuff[3]&0xff)<<24)|((smallBuff[2]&0xff)<<16)|((smallBuff[1]&0xff)<<8)|(smallBuff[0]&0xff);
-				if(chunkSize < 0) {
-					chunkSize = ((smallBuff[0]&0xff)<<24)|((smallBuff[1]&0xff)<<16)|((smallBuff[2]&0xff)<<8)|(smallBuff[3]&0xff);
-				}
-				if(chunkSize < 0) {
-					throw new IllegalStateException(
-							String.format("invalid chunk size for chunk '%s,' size is negative regardless of endianess (0x%02x%02x%02x%02x, 0x%02x%02x%02x%02x)",
-									chunkID,
-									smallBuff[0],
-									smallBuff[1],
-									smallBuff[2],
-									smallBuff[3],
-									smallBuff[3],
-									smallBuff[2],
-									smallBuff[1],
-									smallBuff[0]
-							)
-					);
-				}
-				if(chunkSize > stream.available()) {
-					throw new IllegalStateException(String.format("invalid length for chunk '%s' (%d): chunk size exceeds remaining file size (%d)", chunkID, chunkSize, stream.available()));
-				}
-				try {
-					buff = new byte[chunkSize];
+
+				if(end - position < 8) {
+					throw new IllegalStateException("invalid chunk size for chunk '" + chunkID + ",' expected 4 bytes, got " + (end - position - 4));
 				}
-				catch(OutOfMemoryError e) {
-					System.err.println("Chunk '" + chunkID + "' is too large! (Size: " + chunkSize + ")");
-					throw e;
+				buffer.get(smallBuff, 0, 4);
+				chunkSize = (int)Math.min(readChunkSize(chunkID, smallBuff, 0, end - position - 8), Integer.MAX_VALUE);
+				if(chunkSize > end - position - 8) {
+					throw new IllegalStateException(String.format("invalid length for chunk '%s' (%d): chunk size exceeds remaining file size (%d)", chunkID, chunkSize, end - position - 8));
 				}
-				while(total < chunkSize) {
-					read = stream.read(buff, total, chunkSize-total);
-					if(read == -1) {
-						throw new IllegalStateException("unexpected end of data while processing chunk '" + chunkID + ",' expected " + chunkSize + " bytes, got " + total);
-					}
-					totalRead+=read;
-					total += read;
-				}
-				chunk = new IFFChunk(chunkID, buff, parent, offset);
-				chunkMap.put(chunkID, chunk);
-				chunks.add(chunk);
+				slice = buffer.slice();
+				slice.limit(chunkSize);
+
+				this.addChunk(chunkID, slice, parent, position - start);
+				position += 8 + chunkSize;
 			}
 		}
 		catch(IllegalStateException | IllegalArgumentException e) {
@@ -127,12 +282,231 @@ public class IFFFile {
 		catch(Throwable e) {
 			throw new IllegalStateException("internal exception while parsing data", e);
 		}
-		finally {
-			try {
-				stream.close();
+	}
+
+	private void scan(File file, long start, long length) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = Math.min(length, channel.size() - start);
+			if(size < 8) {
+				throw new IllegalArgumentException("Provided data source is too short to represent a valid IFF archive (" + size + " < 8)");
 			}
-			catch(Exception e) {}
+			this.scan(channel, start, start + size, null);
+		}
+	}
+
+	// Only reads the 8 byte headers and seeks past everything else
+	private void scan(FileChannel channel, long start, long end, IFFChunk parent) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		byte[] smallBuff = new byte[4];
+		long position = start, chunkSize;
+		String chunkID;
+
+		IFFChunk chunk;
+
+		while(position < end) {
+			if(end - position < 8) {
+				throw new IllegalStateException("invalid chunk header, expected 8 bytes, got " + (end - position));
+			}
+			header.clear();
+			while(header.hasRemaining()) {
+				if(channel.read(header, position + header.position()) < 0) {
+					throw new IllegalStateException("unexpected end of file while reading chunk header at offset " + position);
+				}
+			}
+			header.flip();
+			header.get(smallBuff);
+			chunkID = readChunkID(smallBuff);
+
+			// I'm not dealing with this
+			if(chunkID.equals("RASP")) {
+				System.err.println("Found RASP chunk, exiting early");
+				break;
+			}
+
+			header.get(smallBuff);
+			chunkSize = readChunkSize(chunkID, smallBuff, 0, end - position - 8);
+			if(chunkSize > end - position - 8) {
+				throw new IllegalStateException(String.format("invalid length for chunk '%s' (%d): chunk size exceeds remaining file size (%d)", chunkID, chunkSize, end - position - 8));
+			}
+			chunk = new IFFChunk(chunkID, chunkSize, parent == null ? this : parent.getOrigin(), parent, position - start);
+			if(CONTAINER_CHUNKS.contains(chunkID)) {
+				chunk.setSubChunks(new IFFFile(channel, position + 8, position + 8 + chunkSize, chunk));
+			}
+			else if(mode == LoadMode.DIRECT || mode == LoadMode.HEAP) {
+				// Read everything now while the channel is open
+				chunk.setSegments(this.read(channel, chunk, position + 8, chunkSize));
+			}
+			chunkMap.put(chunkID, chunk);
+			chunks.add(chunk);
+
+			position += 8 + chunkSize;
+		}
+	}
+
+	// Called by chunks found by the header scan the first time they're touched.
+	// Anything too large for a single array is mapped regardless of the mode.
+	ByteBuffer[] load(IFFChunk chunk) {
+		if(file == null) {
+			throw new IllegalStateException("chunk '" + chunk.getTypeID() + "' has no contents and no file to load them from");
+		}
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return this.read(channel, chunk, base + chunk.getAbsoluteOffset(), chunk.getLongLength());
 		}
+		catch(IOException e) {
+			throw new IllegalStateException("failed to load chunk '" + chunk.getTypeID() + "' from " + file.getAbsolutePath(), e);
+		}
+	}
+
+	private ByteBuffer[] read(FileChannel channel, IFFChunk chunk, long position, long length) throws IOException {
+		if(mode == LoadMode.MAPPED || length > Integer.MAX_VALUE) {
+			// The mapping stays valid after the channel is closed
+			return map(channel, position, length);
+		}
+		if(budget != null && !budget.tryReserve(length)) {
+			System.err.printf("WARNING: Chunk '%s' (%d bytes) doesn't fit in the memory budget, mapping it instead\n", chunk.getTypeID(), length);
+			return map(channel, position, length);
+		}
+		ByteBuffer buff;
+		try {
+			buff = mode == LoadMode.DIRECT ? ByteBuffer.allocateDirect((int)length) : ByteBuffer.allocate((int)length);
+			while(buff.hasRemaining()) {
+				if(channel.read(buff, position + buff.position()) < 0) {
+					throw new IllegalStateException("unexpected end of file while loading chunk '" + chunk.getTypeID() + "'");
+				}
+			}
+		}
+		catch(Throwable e) {
+			if(budget != null) {
+				budget.release(length);
+			}
+			throw e;
+		}
+		if(budget != null) {
+			root.reserved.addAndGet(length);
+		}
+		buff.flip();
+		return new ByteBuffer[] {buff};
+	}
+
+	// Walks the chunk headers without allocating or throwing anything.
+	// If this returns true, parse(buffer, parent) will succeed.
+	static boolean containsChunks(ByteBuffer buffer) {
+		int position = buffer.position(), end = buffer.limit(), raw;
+		long size;
+		byte b;
+
+		if(end - position < 8) {
+			return false;
+		}
+		while(position < end) {
+			if(end - position < 4) {
+				return false;
+			}
+			for(int i = 0; i < 4; i++) {
+				b = buffer.get(position+i);
+				if(!(b == '_' || (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z'))) {
+					return false;
+				}
+			}
+			if(buffer.get(position) == 'R' && buffer.get(position+1) == 'A' && buffer.get(position+2) == 'S' && buffer.get(position+3) == 'P') {
+				return true;
+			}
+			if(end - position < 8) {
+				return false;
+			}
+			raw = ((buffer.get(position+7)&0xff)<<24)|((buffer.get(position+6)&0xff)<<16)|((buffer.get(position+5)&0xff)<<8)|(buffer.get(position+4)&0xff);
+			size = Integer.toUnsignedLong(raw);
+			if(size > end - position - 8) {
+				size = Integer.toUnsignedLong(Integer.reverseBytes(raw));
+			}
+			if(size > end - position - 8) {
+				return false;
+			}
+			position += 8 + size;
+		}
+		return true;
+	}
+
+	private void addChunk(String chunkID, ByteBuffer contents, IFFChunk parent, long offset) {
+		IFFChunk chunk = parent == null ? new IFFChunk(chunkID, contents, this, offset) : new IFFChunk(chunkID, contents, parent, offset);
+		chunkMap.put(chunkID, chunk);
+		chunks.add(chunk);
+	}
+
+	static String readChunkID(byte[] bytes) {
+		String chunkID = new String(bytes, 0, 4, Charset.forName("UTF-8"));
+
+		// Technically, a FourCC with unprintable characters is allowed.
+		// However, Game Maker archives only have printable characters.
+		// Since that's what we're interested in, we reject otherwise
+		// valid files with nonprintable chunk IDs.
+		// https://en.wikipedia.org/wiki/FourCC
+		if(!chunkID.matches("\\w{4}")) {
+			throw new IllegalStateException(
+					String.format("invalid chunk ID, contains illegal bytes (Bytes: 0x%02x 0x%02x 0x%02x 0x%02x)",
+							bytes[0],
+							bytes[1],
+							bytes[2],
+							bytes[3]
+					)
+			);
+		}
+		return chunkID;
+	}
+
+	// Sizes are unsigned little-endian. Some archives have big-endian sizes,
+	// so that's used instead if it's the only one that fits what's left.
+	// A negative limit means the remaining size is unknown.
+	static long readChunkSize(String chunkID, byte[] bytes, int offset, long limit) {
+		int b0 = bytes[offset]&0xff, b1 = bytes[offset+1]&0xff, b2 = bytes[offset+2]&0xff, b3 = bytes[offset+3]&0xff;
+		long chunkSize = Integer.toUnsignedLong((b3<<24)|(b2<<16)|(b1<<8)|b0);
+		long bigEndian = Integer.toUnsignedLong((b0<<24)|(b1<<16)|(b2<<8)|b3);
+		if(limit >= 0 && chunkSize > limit && bigEndian <= limit) {
+			return bigEndian;
+		}
+		return chunkSize;
+	}
+
+	// Hashes every chunk (including sub-chunks) in parallel, see IFFChunk.getHash()
+	public Map<IFFChunk, Long> computeHashes() {
+		List<IFFChunk> all = new ArrayList<>();
+		collect(chunks, all);
+		all.parallelStream().forEach(IFFChunk::getHash);
+
+		Map<IFFChunk, Long> out = new LinkedHashMap<>();
+		for(IFFChunk chunk : all) {
+			out.put(chunk, chunk.getHash());
+		}
+		return out;
+	}
+	private static void collect(List<IFFChunk> chunks, List<IFFChunk> out) {
+		for(IFFChunk chunk : chunks) {
+			out.add(chunk);
+			collect(chunk.getSubChunks(), out);
+		}
+	}
+	public LoadMode getLoadMode() {
+		return mode;
+	}
+	public File getFile() {
+		return file;
+	}
+	// Null if there's no limit
+	public MemoryBudget getMemoryBudget() {
+		return budget;
+	}
+	// Gives the chunks' share of the memory budget back. The chunks can still be read afterwards,
+	// they just aren't counted anymore, so don't hold on to them.
+	@Override
+	public void close() {
+		long bytes = reserved.getAndSet(0);
+		if(budget != null && bytes > 0) {
+			budget.release(bytes);
+		}
+	}
+	// Where the archive starts within getFile()
+	public long getFileOffset() {
+		return base;
 	}
 	public List<IFFChunk> getChunks() {
 		return Collections.unmodifiableList(chunks);
@@ -0,0 +1,215 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Walks an IFF archive in a single pass without seeking or buffering chunks,
+// so it works on pipes, sockets and archive entries.
+public class IFFStreamReader {
+
+	private InputStream stream;
+	private byte[] header, skipBuffer;
+	private boolean stopped, canSkip = true;
+	private long position, limit;
+
+	public IFFStreamReader(InputStream stream) {
+		this(stream, -1);
+	}
+	// Stops after length bytes instead of at the end of the stream, length < 0 means no limit
+	public IFFStreamReader(InputStream stream, long length) {
+		if(stream == null) {
+			throw new IllegalArgumentException("stream cannot be null");
+		}
+		this.header = new byte[8];
+		this.stream = stream;
+		this.limit = length;
+	}
+
+	public static boolean isContainer(String typeID) {
+		return typeID.equals("FORM") || typeID.equals("LIST");
+	}
+
+	// Does not close the stream
+	public void accept(IFFVisitor visitor) throws IOException {
+		if(visitor == null) {
+			throw new IllegalArgumentException("visitor cannot be null");
+		}
+		if(position != 0) {
+			throw new IllegalStateException("stream has already been read");
+		}
+		this.visit(visitor, limit);
+
+		if(position < 8) {
+			throw new IllegalArgumentException("Provided data source is too short to represent a valid IFF archive (" + position + " < 8)");
+		}
+	}
+
+	// end < 0 means read until the stream runs out
+	private void visit(IFFVisitor visitor, long end) throws IOException {
+		long offset, length;
+		String chunkID;
+		int read;
+
+		IFFVisitor.Action action;
+		BoundedInputStream contents;
+
+		while(!stopped && (end < 0 || position < end)) {
+			offset = position;
+			read = this.readFully(header, 0, 4);
+			if(read == 0 && end < 0) {
+				return;
+			}
+			if(read != 4) {
+				throw new IllegalStateException("invalid chunk ID, expected 4 bytes, got " + read);
+			}
+			chunkID = IFFFile.readChunkID(header);
+
+			// I'm not dealing with this
+			if(chunkID.equals("RASP")) {
+				System.err.println("Found RASP chunk, exiting early");
+				if(end >= 0) {
+					this.skipFully(end - position);
+				}
+				return;
+			}
+
+			read = this.readFully(header, 4, 4);
+			if(read != 4) {
+				throw new IllegalStateException("invalid chunk size for chunk '" + chunkID + ",' expected 4 bytes, got " + read);
+			}
+			length = IFFFile.readChunkSize(chunkID, header, 4, end < 0 ? -1 : end - position);
+			if(end >= 0 && length > end - position) {
+				throw new IllegalStateException(String.format("invalid length for chunk '%s' (%d): chunk size exceeds remaining file size (%d)", chunkID, length, end - position));
+			}
+
+			action = visitor.startChunk(chunkID, offset, length);
+			if(action == null) {
+				action = IFFVisitor.Action.SKIP;
+			}
+			switch(action) {
+			case STOP:
+				stopped = true;
+				return;
+			case DESCEND:
+				this.visit(visitor, position + length);
+				if(stopped) {
+					return;
+				}
+				break;
+			case READ:
+				contents = new BoundedInputStream(chunkID, length);
+				visitor.visitContents(chunkID, offset, length, contents);
+				this.skipFully(contents.remaining);
+				break;
+			default:
+				this.skipFully(length);
+				break;
+			}
+			visitor.endChunk(chunkID, offset, length);
+		}
+	}
+
+	private int readFully(byte[] dest, int offset, int length) throws IOException {
+		int total = 0, read;
+		while(total < length) {
+			read = stream.read(dest, offset + total, length - total);
+			if(read == -1) {
+				break;
+			}
+			total += read;
+		}
+		position += total;
+		return total;
+	}
+
+	private void skipFully(long length) throws IOException {
+		long skipped;
+		while(length > 0) {
+			skipped = 0;
+			if(canSkip) {
+				try {
+					skipped = stream.skip(length);
+				}
+				catch(IOException e) {
+					// Pipes throw "Illegal seek", read through them from now on
+					canSkip = false;
+				}
+			}
+			// Some streams refuse to skip, fall back to reading
+			if(skipped <= 0) {
+				if(skipBuffer == null) {
+					skipBuffer = new byte[8192];
+				}
+				skipped = stream.read(skipBuffer, 0, (int)Math.min(length, skipBuffer.length));
+				if(skipped == -1) {
+					throw new IllegalStateException("unexpected end of data, " + length + " bytes short");
+				}
+			}
+			position += skipped;
+			length -= skipped;
+		}
+	}
+
+	// Exposes exactly one chunk's contents from the underlying stream
+	private class BoundedInputStream extends InputStream {
+
+		private String chunkID;
+		private long remaining;
+
+		private BoundedInputStream(String chunkID, long length) {
+			this.remaining = length;
+			this.chunkID = chunkID;
+		}
+
+		private IllegalStateException truncated() {
+			return new IllegalStateException("unexpected end of data while processing chunk '" + chunkID + ",' " + remaining + " bytes short");
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int out = stream.read();
+			if(out == -1) {
+				throw this.truncated();
+			}
+			remaining--;
+			position++;
+			return out;
+		}
+
+		@Override
+		public int read(byte[] buff, int offset, int length) throws IOException {
+			if(length == 0) {
+				return 0;
+			}
+			if(remaining <= 0) {
+				return -1;
+			}
+			int read = stream.read(buff, offset, (int)Math.min(length, remaining));
+			if(read == -1) {
+				throw this.truncated();
+			}
+			remaining -= read;
+			position += read;
+			return read;
+		}
+
+		@Override
+		public long skip(long length) throws IOException {
+			long skipped = Math.min(Math.max(length, 0), remaining);
+			IFFStreamReader.this.skipFully(skipped);
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int)Math.min(stream.available(), remaining);
+		}
+
+		@Override
+		public void close() {}
+	}
+}
@@ -0,0 +1,30 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Callbacks for IFFStreamReader. Offsets are from the start of the stream
+// and point at the chunk header, the contents start 8 bytes later.
+public interface IFFVisitor {
+
+	public static enum Action {
+		// Treat the contents as more chunks and visit those
+		DESCEND,
+		// Hand the contents to visitContents
+		READ,
+		// Skip over the contents without buffering them
+		SKIP,
+		// Stop reading altogether
+		STOP;
+	}
+
+	public default Action startChunk(String typeID, long offset, long length) throws IOException {
+		return IFFStreamReader.isContainer(typeID) ? Action.DESCEND : Action.READ;
+	}
+
+	// The stream ends at the end of the chunk and doesn't need to be closed.
+	// Anything left unread is skipped once this returns.
+	public default void visitContents(String typeID, long offset, long length, InputStream contents) throws IOException {}
+
+	public default void endChunk(String typeID, long offset, long length) throws IOException {}
+}
@@ -0,0 +1,332 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rebuilds an archive after some of its chunks have been replaced.
+// Chunks that don't change are copied straight from the source file with transferTo,
+// chunks that hold absolute pointers into something that moved are handed to a Relocator.
+public class IFFWriter {
+
+	public static interface Relocator {
+		// Return false if the chunk isn't understood. To change a chunk, patch
+		// the buffer returned by relocation.edit(chunk), otherwise it's copied as-is.
+		public boolean relocate(IFFChunk chunk, Relocation relocation);
+	}
+
+	// Maps addresses in the source archive to where they end up in the new one
+	public static class Relocation {
+
+		private long[] oldStarts, oldEnds, newStarts;
+		private IFFChunk[] chunks;
+		private boolean[] replaced;
+		private boolean identity = true;
+
+		private Map<IFFChunk, ByteBuffer> edits = new IdentityHashMap<>();
+
+		private Relocation(List<Entry> entries) {
+			int size = entries.size();
+			oldStarts = new long[size];
+			oldEnds = new long[size];
+			newStarts = new long[size];
+			chunks = new IFFChunk[size];
+			replaced = new boolean[size];
+
+			Entry entry;
+			for(int i = 0; i < size; i++) {
+				entry = entries.get(i);
+				oldStarts[i] = entry.oldStart;
+				oldEnds[i] = entry.oldStart + entry.oldLength;
+				newStarts[i] = entry.newStart;
+				chunks[i] = entry.chunk;
+				replaced[i] = entry.replacement != null;
+				identity &= !replaced[i] && entry.oldStart == entry.newStart;
+			}
+		}
+
+		private int find(long address) {
+			int index = Arrays.binarySearch(oldStarts, address);
+			if(index < 0) {
+				index = -index - 2;
+			}
+			if(index < 0 || address >= oldEnds[index]) {
+				return -1;
+			}
+			return index;
+		}
+
+		// True if nothing moved or was replaced, every pointer is still valid
+		public boolean isIdentity() {
+			return identity;
+		}
+		// True if every chunk that moved or was replaced has one of these types
+		public boolean isConfinedTo(String... typeIDs) {
+			Set<String> allowed = new HashSet<>(Arrays.asList(typeIDs));
+			for(int i = 0; i < chunks.length; i++) {
+				if((replaced[i] || oldStarts[i] != newStarts[i]) && !allowed.contains(chunks[i].getTypeID())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		public boolean isReplaced(long address) {
+			int index = this.find(address);
+			return index >= 0 && replaced[index];
+		}
+		// Addresses inside of replaced chunks only keep their distance from the start of the chunk
+		public long relocate(long address) {
+			int index = this.find(address);
+			if(index < 0) {
+				throw new IllegalArgumentException(String.format("address 0x%08x is not inside of any chunk", address));
+			}
+			return address - oldStarts[index] + newStarts[index];
+		}
+		// Writable little-endian copy of the chunk's contents that's written in place of the original
+		public ByteBuffer edit(IFFChunk chunk) {
+			ByteBuffer contents = edits.get(chunk);
+			if(contents == null) {
+				if(chunk.getLongLength() > Integer.MAX_VALUE) {
+					throw new IllegalStateException(String.format("chunk %s is too large (%d bytes) to be relocated", chunk.getTypeID(), chunk.getLongLength()));
+				}
+				contents = ByteBuffer.allocate(chunk.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+				if(chunk.getLength() > 0) {
+					chunk.read(0, chunk.getLength(), contents.array());
+				}
+				edits.put(chunk, contents);
+			}
+			return contents;
+		}
+	}
+
+	private static class Entry {
+
+		private IFFChunk chunk;
+		private ByteBuffer replacement;
+		private long oldStart, oldLength, newStart;
+	}
+
+	private Map<IFFChunk, ByteBuffer> replacements = new IdentityHashMap<>();
+	private List<Relocator> relocators = new ArrayList<>();
+	private boolean strict = true;
+	private IFFFile source;
+
+	public IFFWriter(IFFFile source) {
+		if(source == null) {
+			throw new IllegalArgumentException("source cannot be null");
+		}
+		this.source = source;
+	}
+
+	// Replacement contents are written as-is, any absolute pointers inside of
+	// them have to already account for the new layout (see getNewOffset)
+	public IFFWriter replace(IFFChunk chunk, byte[] contents) {
+		return this.replace(chunk, ByteBuffer.wrap(contents));
+	}
+	public IFFWriter replace(IFFChunk chunk, ByteBuffer contents) {
+		if(chunk == null || contents == null) {
+			throw new IllegalArgumentException("chunk and contents cannot be null");
+		}
+		if(IFFStreamReader.isContainer(chunk.getTypeID())) {
+			throw new IllegalArgumentException("cannot replace container chunk " + chunk.getTypeID() + ", replace its children instead");
+		}
+		replacements.put(chunk, contents.slice());
+		return this;
+	}
+	public IFFWriter addRelocator(Relocator relocator) {
+		if(relocator == null) {
+			throw new IllegalArgumentException("relocator cannot be null");
+		}
+		relocators.add(relocator);
+		return this;
+	}
+	// If disabled, chunks no relocator understands are copied unchanged with a warning
+	// instead of failing the write
+	public IFFWriter setStrict(boolean strict) {
+		this.strict = strict;
+		return this;
+	}
+
+	// Where the contents of the chunk will start in the new archive
+	public long getNewOffset(IFFChunk chunk) {
+		for(Entry entry : this.layout()) {
+			if(entry.chunk == chunk) {
+				return entry.newStart + 8;
+			}
+		}
+		throw new IllegalArgumentException("chunk " + chunk.getTypeID() + " is not a leaf chunk of this archive");
+	}
+
+	private List<Entry> layout() {
+		List<Entry> entries = new ArrayList<>();
+		this.layout(source.getChunks(), 0, entries);
+		return entries;
+	}
+	// Returns the new length of the given chunks, headers included
+	private long layout(List<IFFChunk> chunks, long position, List<Entry> entries) {
+		long start = position, length;
+		Entry entry;
+		for(IFFChunk chunk : chunks) {
+			if(IFFStreamReader.isContainer(chunk.getTypeID())) {
+				length = this.layout(chunk.getSubChunks(), position + 8, entries);
+			}
+			else {
+				entry = new Entry();
+				entry.chunk = chunk;
+				entry.replacement = replacements.get(chunk);
+				entry.oldStart = chunk.getAbsoluteOffset() - 8;
+				entry.oldLength = chunk.getLongLength() + 8;
+				entry.newStart = position;
+				entries.add(entry);
+				length = entry.replacement == null ? chunk.getLongLength() : entry.replacement.remaining();
+			}
+			position += 8 + length;
+		}
+		return position - start;
+	}
+
+	public void write(File out) throws IOException {
+		if(source.getFile() != null && source.getFile().getCanonicalFile().equals(out.getCanonicalFile())) {
+			throw new IllegalArgumentException("cannot write over the source archive: " + out.getAbsolutePath());
+		}
+		try(FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			this.write(channel);
+		}
+	}
+	public void write(FileChannel out) throws IOException {
+		List<Entry> entries = this.layout();
+		Map<IFFChunk, Entry> entryMap = new HashMap<>();
+		for(Entry entry : entries) {
+			entryMap.put(entry.chunk, entry);
+		}
+		Relocation relocation = new Relocation(entries);
+		if(!relocation.isIdentity()) {
+			this.relocate(entries, relocation);
+		}
+		FileChannel in = null;
+		try {
+			if(source.getFile() != null) {
+				in = FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ);
+			}
+			this.write(source.getChunks(), entryMap, relocation, in, out);
+		}
+		finally {
+			if(in != null) {
+				in.close();
+			}
+		}
+	}
+
+	private void relocate(List<Entry> entries, Relocation relocation) {
+		boolean handled;
+		for(Entry entry : entries) {
+			if(entry.replacement != null) {
+				continue;
+			}
+			handled = false;
+			for(Relocator relocator : relocators) {
+				if(relocator.relocate(entry.chunk, relocation)) {
+					handled = true;
+					break;
+				}
+			}
+			if(!handled) {
+				if(strict) {
+					throw new IllegalStateException(String.format("chunk '%s' may hold pointers that need relocating and no relocator could handle it", entry.chunk.getTypeID()));
+				}
+				System.err.println("WARNING: Copying chunk " + entry.chunk.getTypeID() + " without relocating it");
+			}
+		}
+	}
+
+	private void write(List<IFFChunk> chunks, Map<IFFChunk, Entry> entryMap, Relocation relocation, FileChannel in, FileChannel out) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer contents;
+		Entry entry;
+		long length;
+		for(IFFChunk chunk : chunks) {
+			header.clear();
+			header.put(chunk.getTypeID().getBytes(Charset.forName("US-ASCII")));
+			if(IFFStreamReader.isContainer(chunk.getTypeID())) {
+				length = this.getNewLength(chunk.getSubChunks(), entryMap);
+				if(length > 0xffffffffL) {
+					throw new IllegalStateException(String.format("chunk %s is too large (%d bytes) to be written", chunk.getTypeID(), length));
+				}
+				header.putInt((int)length);
+				header.flip();
+				writeFully(out, header);
+				this.write(chunk.getSubChunks(), entryMap, relocation, in, out);
+				continue;
+			}
+			entry = entryMap.get(chunk);
+			contents = entry.replacement == null ? relocation.edits.get(chunk) : entry.replacement;
+			length = contents == null ? chunk.getLongLength() : contents.remaining();
+			if(length > 0xffffffffL) {
+				throw new IllegalStateException(String.format("chunk %s is too large (%d bytes) to be written", chunk.getTypeID(), length));
+			}
+			header.putInt((int)length);
+			header.flip();
+			writeFully(out, header);
+
+			if(contents != null) {
+				writeFully(out, contents.duplicate());
+			}
+			else if(in != null) {
+				transferFully(in, source.getFileOffset() + chunk.getAbsoluteOffset(), length, out);
+			}
+			else {
+				for(ByteBuffer segment : chunk.asByteBuffers()) {
+					writeFully(out, segment);
+				}
+			}
+		}
+	}
+	private long getNewLength(List<IFFChunk> chunks, Map<IFFChunk, Entry> entryMap) {
+		long length = 0;
+		Entry entry;
+		for(IFFChunk chunk : chunks) {
+			if(IFFStreamReader.isContainer(chunk.getTypeID())) {
+				length += 8 + this.getNewLength(chunk.getSubChunks(), entryMap);
+				continue;
+			}
+			entry = entryMap.get(chunk);
+			if(entry.replacement != null) {
+				length += 8 + entry.replacement.remaining();
+			}
+			else {
+				length += 8 + chunk.getLongLength();
+			}
+		}
+		return length;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buff) throws IOException {
+		while(buff.hasRemaining()) {
+			out.write(buff);
+		}
+	}
+	// transferTo may move less than asked for, especially past 2 GB
+	private static void transferFully(FileChannel in, long position, long length, FileChannel out) throws IOException {
+		long transferred;
+		while(length > 0) {
+			transferred = in.transferTo(position, length, out);
+			if(transferred <= 0) {
+				throw new IllegalStateException("unexpected end of file while copying chunk at offset " + position);
+			}
+			position += transferred;
+			length -= transferred;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Caps how much memory is allocated for a single archive.
+// Chunk contents reserve their size for as long as the archive is open, short-lived
+// buffers (decoded textures, copies of resources) only have to fit in what's left.
+// Memory-mapped chunks are backed by the page cache and don't count.
+public class MemoryBudget {
+
+	private final AtomicLong reserved = new AtomicLong();
+	private final long limit;
+
+	public MemoryBudget(long limit) {
+		if(limit < 0) {
+			throw new IllegalArgumentException("invalid limit: " + limit);
+		}
+		this.limit = limit;
+	}
+
+	public boolean tryReserve(long bytes) {
+		long current;
+		do {
+			current = reserved.get();
+			if(bytes > limit - current) {
+				return false;
+			}
+		} while(!reserved.compareAndSet(current, current + bytes));
+		return true;
+	}
+	public void reserve(long bytes, String what) {
+		if(!this.tryReserve(bytes)) {
+			throw this.exceeded(bytes, what);
+		}
+	}
+	// Fails if the allocation wouldn't fit right now, without holding on to anything
+	public void check(long bytes, String what) {
+		if(bytes > this.getRemaining()) {
+			throw this.exceeded(bytes, what);
+		}
+	}
+	public void release(long bytes) {
+		reserved.addAndGet(-bytes);
+	}
+
+	private IllegalStateException exceeded(long bytes, String what) {
+		return new IllegalStateException(String.format(
+				"%s needs %d bytes but only %d of the %d byte memory budget are left",
+				what,
+				bytes,
+				this.getRemaining(),
+				limit
+		));
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+	public long getReserved() {
+		return reserved.get();
+	}
+	public long getRemaining() {
+		return Math.max(0, limit - reserved.get());
+	}
+	@Override
+	public String toString() {
+		return String.format("MemoryBudget [reserved=%d, limit=%d]", reserved.get(), limit);
+	}
+}
@@ -0,0 +1,128 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md
+// Streaming so chunks split into segments can be hashed without copying them.
+public class XXHash64 {
+
+	private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME_3 = 0x165667B19E3779F9L;
+	private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+	private long v1, v2, v3, v4, seed, totalLength;
+
+	// Leftover bytes that didn't make up a full 32 byte stripe
+	private ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+	public static long hash(byte[] bytes) {
+		return new XXHash64().update(ByteBuffer.wrap(bytes)).getValue();
+	}
+	public static long hash(ByteBuffer buffer) {
+		return new XXHash64().update(buffer).getValue();
+	}
+
+	public XXHash64() {
+		this(0);
+	}
+	public XXHash64(long seed) {
+		this.seed = seed;
+		this.reset();
+	}
+
+	public void reset() {
+		v1 = seed + PRIME_1 + PRIME_2;
+		v2 = seed + PRIME_2;
+		v3 = seed;
+		v4 = seed - PRIME_1;
+		totalLength = 0;
+		pending.clear();
+	}
+
+	// Hashes everything between the buffer's position and limit.
+	// The buffer itself is left untouched.
+	public XXHash64 update(ByteBuffer buffer) {
+		ByteBuffer buff = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int position = buff.position(), end = buff.limit();
+		totalLength += end - position;
+
+		if(pending.position() > 0) {
+			while(pending.hasRemaining() && position < end) {
+				pending.put(buff.get(position++));
+			}
+			if(pending.hasRemaining()) {
+				return this;
+			}
+			this.stripe(pending, 0);
+			pending.clear();
+		}
+		while(end - position >= 32) {
+			this.stripe(buff, position);
+			position += 32;
+		}
+		while(position < end) {
+			pending.put(buff.get(position++));
+		}
+		return this;
+	}
+	public XXHash64 update(byte[] bytes, int offset, int length) {
+		return this.update(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	public long getValue() {
+		long hash;
+		if(totalLength >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		}
+		else {
+			hash = seed + PRIME_5;
+		}
+		hash += totalLength;
+
+		int position = 0, end = pending.position();
+		while(end - position >= 8) {
+			hash ^= round(0, pending.getLong(position));
+			hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+			position += 8;
+		}
+		if(end - position >= 4) {
+			hash ^= Integer.toUnsignedLong(pending.getInt(position)) * PRIME_1;
+			hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+			position += 4;
+		}
+		while(position < end) {
+			hash ^= (pending.get(position) & 0xff) * PRIME_5;
+			hash = Long.rotateLeft(hash, 11) * PRIME_1;
+			position++;
+		}
+		hash ^= hash >>> 33;
+		hash *= PRIME_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME_3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private void stripe(ByteBuffer buff, int position) {
+		v1 = round(v1, buff.getLong(position));
+		v2 = round(v2, buff.getLong(position+8));
+		v3 = round(v3, buff.getLong(position+16));
+		v4 = round(v4, buff.getLong(position+24));
+	}
+	private static long round(long acc, long input) {
+		acc += input * PRIME_2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME_1;
+	}
+	private static long merge(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME_1 + PRIME_4;
+	}
+}
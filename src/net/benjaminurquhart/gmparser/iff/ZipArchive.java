@@ -0,0 +1,235 @@
+package net.benjaminurquhart.gmparser.iff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+// https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+// Only the central directory is read, so archives inside of a zip (or APK) can be opened
+// in place. Stored entries are scanned/mapped straight out of the zip, compressed ones
+// can't be mapped and are inflated straight into memory (direct buffers in DIRECT mode,
+// the heap otherwise) without touching the disk.
+public class ZipArchive {
+
+	public static final int STORED = 0, DEFLATED = 8;
+
+	private static final int END_OF_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int DIRECTORY_ENTRY = 0x02014b50;
+	private static final int LOCAL_HEADER = 0x04034b50;
+
+	public static class Entry {
+
+		private String name;
+		private int method, flags;
+		private long compressedSize, size, headerOffset;
+
+		private Entry() {}
+
+		public String getName() {
+			return name;
+		}
+		public int getMethod() {
+			return method;
+		}
+		public long getSize() {
+			return size;
+		}
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+		public boolean isStored() {
+			return method == STORED;
+		}
+		public boolean isEncrypted() {
+			return (flags&1) != 0;
+		}
+		@Override
+		public String toString() {
+			return String.format("Entry [name=%s, method=%d, size=%d, compressed=%d]", name, method, size, compressedSize);
+		}
+	}
+
+	private Map<String, Entry> entries = new LinkedHashMap<>();
+	private File file;
+
+	public ZipArchive(File file) throws IOException {
+		if(file == null) {
+			throw new IllegalArgumentException("file cannot be null");
+		}
+		this.file = file;
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			this.readDirectory(channel);
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buff = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buff.hasRemaining()) {
+			if(channel.read(buff, position + buff.position()) < 0) {
+				throw new IllegalStateException("unexpected end of zip file at offset " + (position + buff.position()));
+			}
+		}
+		buff.flip();
+		return buff;
+	}
+
+	private void readDirectory(FileChannel channel) throws IOException {
+		long size = channel.size();
+
+		// The end record is 22 bytes followed by a comment of up to 65535 bytes
+		int tailLength = (int)Math.min(size, 22 + 0xffff);
+		ByteBuffer tail = read(channel, size - tailLength, tailLength);
+		int end = -1;
+		for(int i = tailLength - 22; i >= 0; i--) {
+			if(tail.getInt(i) == END_OF_DIRECTORY) {
+				end = i;
+				break;
+			}
+		}
+		if(end < 0) {
+			throw new IllegalArgumentException("not a zip file (no end of central directory found): " + file.getAbsolutePath());
+		}
+		long count = tail.getShort(end + 10) & 0xffff;
+		long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+		long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+		if(count == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+			long locatorPosition = size - tailLength + end - 20;
+			ByteBuffer locator = read(channel, locatorPosition, 20);
+			if(locator.getInt(0) != ZIP64_LOCATOR) {
+				throw new IllegalStateException("zip64 end of central directory locator is missing");
+			}
+			ByteBuffer zip64 = read(channel, locator.getLong(8), 56);
+			if(zip64.getInt(0) != ZIP64_END_OF_DIRECTORY) {
+				throw new IllegalStateException("zip64 end of central directory record is missing");
+			}
+			count = zip64.getLong(32);
+			directorySize = zip64.getLong(40);
+			directoryOffset = zip64.getLong(48);
+		}
+		if(directorySize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("central directory is too large: " + directorySize + " bytes");
+		}
+		ByteBuffer directory = read(channel, directoryOffset, (int)directorySize);
+		Charset charset = Charset.forName("UTF-8");
+		int position = 0, nameLength, extraLength, commentLength;
+		byte[] name;
+		Entry entry;
+		for(long i = 0; i < count; i++) {
+			if(directory.getInt(position) != DIRECTORY_ENTRY) {
+				throw new IllegalStateException(String.format("invalid central directory entry at offset 0x%08x", directoryOffset + position));
+			}
+			entry = new Entry();
+			entry.flags = directory.getShort(position + 8) & 0xffff;
+			entry.method = directory.getShort(position + 10) & 0xffff;
+			entry.compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+			entry.size = Integer.toUnsignedLong(directory.getInt(position + 24));
+			nameLength = directory.getShort(position + 28) & 0xffff;
+			extraLength = directory.getShort(position + 30) & 0xffff;
+			commentLength = directory.getShort(position + 32) & 0xffff;
+			entry.headerOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+			name = new byte[nameLength];
+			directory.position(position + 46);
+			directory.get(name);
+			entry.name = new String(name, charset);
+
+			readZip64Extra(directory, position + 46 + nameLength, extraLength, entry);
+			entries.put(entry.name, entry);
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+	// Only the fields that overflowed in the regular header are present, in this order
+	private static void readZip64Extra(ByteBuffer directory, int position, int length, Entry entry) {
+		int end = position + length, id, size, field;
+		while(end - position >= 4) {
+			id = directory.getShort(position) & 0xffff;
+			size = directory.getShort(position + 2) & 0xffff;
+			if(id == 0x0001) {
+				field = position + 4;
+				if(entry.size == 0xffffffffL) {
+					entry.size = directory.getLong(field);
+					field += 8;
+				}
+				if(entry.compressedSize == 0xffffffffL) {
+					entry.compressedSize = directory.getLong(field);
+					field += 8;
+				}
+				if(entry.headerOffset == 0xffffffffL) {
+					entry.headerOffset = directory.getLong(field);
+				}
+				return;
+			}
+			position += 4 + size;
+		}
+	}
+
+	// The local header can have a different extra field than the central directory
+	private long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+		ByteBuffer header = read(channel, entry.headerOffset, 30);
+		if(header.getInt(0) != LOCAL_HEADER) {
+			throw new IllegalStateException(String.format("invalid local header for entry %s at offset 0x%08x", entry.name, entry.headerOffset));
+		}
+		return entry.headerOffset + 30 + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+	}
+
+	public IFFFile open(String name, IFFFile.LoadMode mode) throws IOException {
+		return this.open(name, mode, null);
+	}
+	public IFFFile open(String name, IFFFile.LoadMode mode, MemoryBudget budget) throws IOException {
+		Entry entry = this.getEntry(name);
+		if(entry.isEncrypted()) {
+			throw new IllegalStateException("entry is encrypted: " + name);
+		}
+		if(entry.isStored()) {
+			long dataOffset;
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				dataOffset = this.getDataOffset(channel, entry);
+			}
+			return new IFFFile(file, dataOffset, entry.size, mode, budget);
+		}
+		if(entry.method != DEFLATED) {
+			throw new IllegalStateException("unsupported compression method " + entry.method + " for entry " + name);
+		}
+		if(entry.size > Integer.MAX_VALUE) {
+			throw new IllegalStateException(String.format("compressed entry %s is too large to be inflated into memory (%d bytes), store it uncompressed so it can be mapped", name, entry.size));
+		}
+		if(budget != null) {
+			budget.check(entry.size, "compressed entry " + name);
+		}
+		try(ZipFile zip = new ZipFile(file); InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+			return new IFFFile(stream, mode, budget);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+	public List<String> getEntryNames() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+	}
+	public boolean hasEntry(String name) {
+		return entries.containsKey(name);
+	}
+	public Entry getEntry(String name) {
+		if(!this.hasEntry(name)) {
+			throw new IllegalArgumentException("Unknown entry: " + name);
+		}
+		return entries.get(name);
+	}
+}
@@ -1,5 +1,6 @@
 package net.benjaminurquhart.gmparser.resources;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -26,6 +27,10 @@ public class AudioGroupResource extends Resource {
 		return new byte[0];
 	}
 	@Override
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.allocate(0).asReadOnlyBuffer();
+	}
+	@Override
 	public int getLength() {
 		return members.size();
 	}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -15,6 +16,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 
 import net.benjaminurquhart.gmparser.GMDataFile;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.iff.MemoryBudget;
 
 public class AudioResource extends Resource {
 	
@@ -44,7 +46,7 @@ public class AudioResource extends Resource {
 		}
 	}
 	
-	private byte[] bytes;
+	private volatile byte[] bytes;
 	
 	private AudioGroupResource group;
 	private GMDataFile dataFile;
@@ -53,7 +55,7 @@ public class AudioResource extends Resource {
 	
 	private Set<Flag> flags;
 	
-	public AudioResource(GMDataFile dataFile, IFFChunk source, int offset, int length) {
+	public AudioResource(GMDataFile dataFile, IFFChunk source, long offset, long length) {
 		super(source, offset, length);
 		this.dataFile = dataFile;
 	}
@@ -91,6 +93,10 @@ public class AudioResource extends Resource {
 	public boolean isEmbedded() {
 		return flags.contains(Flag.COMPRESSED) || flags.contains(Flag.EMBEDDED);
 	}
+	@Override
+	protected MemoryBudget getMemoryBudget() {
+		return this.getSource() == null ? dataFile.getMemoryBudget() : super.getMemoryBudget();
+	}
 	public AudioGroupResource getAudioGroup() {
 		return group;
 	}
@@ -102,37 +108,70 @@ public class AudioResource extends Resource {
 		if(this.isEmbedded()) {
 			return super.getLength();
 		}
-		return bytes == null ? this.getBytes().length : bytes.length;
+		return this.readFile().length;
 	}
 	@Override
 	public byte[] getBytes() {
 		if(this.isEmbedded()) {
 			return super.getBytes();
 		}
-		if(bytes == null) {
+		byte[] bytes = this.readFile();
+		return bytes.length > 0 ? Arrays.copyOf(bytes, bytes.length) : bytes;
+	}
+	@Override
+	public ByteBuffer asByteBuffer() {
+		if(this.isEmbedded()) {
+			return super.asByteBuffer();
+		}
+		return ByteBuffer.wrap(this.readFile()).asReadOnlyBuffer();
+	}
+	// Audio that isn't embedded is read from the assets folder once and kept around
+	private byte[] readFile() {
+		byte[] out = bytes;
+		if(out != null) {
+			return out;
+		}
+		synchronized(this) {
+			out = bytes;
+			if(out != null) {
+				return out;
+			}
 			File file = new File(dataFile.getAssetsFolder(), filename);
+			MemoryBudget budget = this.getMemoryBudget();
+			long length = file.length();
+			if(budget != null) {
+				budget.reserve(length, "audio file " + filename);
+			}
+			// Only held while reading, like the checks for copies and decoded textures
 			try(InputStream stream = new FileInputStream(file)) {
-				bytes = new byte[(int)file.length()];
+				out = new byte[(int)length];
 				
 				int read = 0;
 				
-				while((read = stream.read(bytes, read, bytes.length-read)) != -1);
+				while((read = stream.read(out, read, out.length-read)) != -1);
 				stream.close();
 			}
 			catch(Exception e) {
 				e.printStackTrace();
 			}
+			finally {
+				if(budget != null) {
+					budget.release(length);
+				}
+			}
+			if(out == null) {
+				out = new byte[0];
+			}
+			// Only published once it's been read
+			bytes = out;
 		}
-		if(bytes == null) {
-			bytes = new byte[0];
-		}
-		return bytes.length > 0 ? Arrays.copyOf(bytes, bytes.length) : bytes;
+		return out;
 	}
 	@Override
 	public String toString() {
 		return String.format(
 				"AudioResource [offset=0x%08x, name=%s, path=%s, flags=%s]",
-				this.getOffset() + (this.getSource() == null ? 0 : this.getSource().getOffset()+12), 
+				this.getLongOffset() + (this.getSource() == null ? 0 : this.getSource().getOffset()+12), 
 				name, 
 				filename, 
 				flags
@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.benjaminurquhart.gmparser.iff.ChunkCursor;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class FontResource extends Resource {
@@ -23,7 +24,7 @@ public class FontResource extends Resource {
 	
 	public static class Glyph {
 		
-		private WeakReference<BufferedImage> image;
+		private volatile WeakReference<BufferedImage> image;
 		private FontResource font;
 		
 		private char chr;
@@ -48,10 +49,17 @@ public class FontResource extends Resource {
 			return kerning;
 		}
 		public BufferedImage getImage() {
+			WeakReference<BufferedImage> image = this.image;
 			BufferedImage out = image == null ? null : image.get();
 			if(out == null) {
-				out = font.getSheet().getSubimage(x, y, width, height);
-				image = new WeakReference<>(out);
+				synchronized(this) {
+					image = this.image;
+					out = image == null ? null : image.get();
+					if(out == null) {
+						out = font.getSheet().getSubimage(x, y, width, height);
+						this.image = new WeakReference<>(out);
+					}
+				}
 			}
 			return out;
 		}
@@ -128,23 +136,25 @@ public class FontResource extends Resource {
 		this.glyphs = new Glyph[glyphOffsets.length];
 		this.charMap = new HashMap<>();
 		
-		int relativeOffset, width, height, x, y, shift, off;
+		int width, height, x, y, shift, off;
 		char chr;
 		
+		ChunkCursor cursor = source.cursor();
+		
 		for(int i = 0; i < glyphs.length; i++) {
-			relativeOffset = glyphOffsets[i]-(int)(source.getOffset()+16);
+			cursor.seek(glyphOffsets[i]-(int)(source.getOffset()+16));
 			
-			chr = (char)source.readInt16(relativeOffset);
-			x = source.readInt16(relativeOffset+2);
-			y = source.readInt16(relativeOffset+4);
+			chr = (char)cursor.readInt16();
+			x = cursor.readInt16();
+			y = cursor.readInt16();
 			
-			width = source.readInt16(relativeOffset+6);
-			height = source.readInt16(relativeOffset+8);
+			width = cursor.readInt16();
+			height = cursor.readInt16();
 			
-			shift = source.readInt16(relativeOffset+10);
-			off = source.readInt16(relativeOffset+12);
+			shift = cursor.readInt16();
+			off = cursor.readInt16();
 			
-			glyphs[i] = new Glyph(this, chr, x, y, width, height, shift, off, new GlyphKerning(source.readInt(relativeOffset+14)));
+			glyphs[i] = new Glyph(this, chr, x, y, width, height, shift, off, new GlyphKerning(cursor.readInt()));
 			charMap.put(chr, glyphs[i]);
 		}
 	}
@@ -1,6 +1,8 @@
 package net.benjaminurquhart.gmparser.resources;
 
 import net.benjaminurquhart.gmparser.GMDataFile;
+import net.benjaminurquhart.gmparser.GMDataFile.Category;
+import net.benjaminurquhart.gmparser.iff.ChunkCursor;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class ObjectResource extends Resource {
@@ -15,10 +17,10 @@ public class ObjectResource extends Resource {
 	
 	private StringResource name;
 	private CollisionShape shape;
-	private SpriteResource sprite;
-	private ObjectResource parent;
+	private volatile SpriteResource sprite;
+	private volatile ObjectResource parent;
 	
-	private int depth, parentID, mask;
+	private int depth, spriteID, parentID, mask;
 	private boolean visible, solid, persistent, physics, sensor;
 	private float density, restitution, group, linearDampening, angularDampening, unknown, friction, unknown2, kinematic;
 
@@ -26,42 +28,83 @@ public class ObjectResource extends Resource {
 		super(source, offset, 80);
 		this.dataFile = dataFile;
 		
-		name = dataFile.getStringFromAbsoluteOffset(source.readInt(offset));
+		ChunkCursor cursor = source.cursor(offset);
 		
-		int spriteIndex = source.readInt(offset+4);
-		if(spriteIndex >= 0) {
-			sprite = dataFile.getSprites().get(spriteIndex);
-		}
-		visible = source.readInt(offset+8) != 0;
-		solid = source.readInt(offset+12) != 0;
-		depth = source.readInt(offset+16);
-		persistent = source.readInt(offset+20) != 0;
-		parentID = source.readInt(offset+24);
-		mask = source.readInt(offset+28);
-		physics = source.readInt(offset+32) != 0;
-		sensor = source.readInt(offset+36) != 0;
+		name = dataFile.getStringFromAbsoluteOffset(cursor.readInt());
+		
+		spriteID = cursor.readInt();
+		visible = cursor.readBoolean();
+		solid = cursor.readBoolean();
+		depth = cursor.readInt();
+		persistent = cursor.readBoolean();
+		parentID = cursor.readInt();
+		mask = cursor.readInt();
+		physics = cursor.readBoolean();
+		sensor = cursor.readBoolean();
+		
+		shape = CollisionShape.values()[cursor.readInt()];
+		
+		density = cursor.readFloat();
+		restitution = cursor.readFloat();
+		group = cursor.readFloat();
+		linearDampening = cursor.readFloat();
+		angularDampening = cursor.readFloat();
+		unknown = cursor.readFloat();
+		friction = cursor.readFloat();
+		unknown2 = cursor.readFloat();
+		kinematic = cursor.readFloat();
+	}
+	// Copies a row of an ObjectTable instead of reading the chunk again
+	ObjectResource(GMDataFile dataFile, ObjectTable table, int index) {
+		super(table.getSource(), (int)(table.getPointer(index)-table.getSource().getAbsoluteOffset()), 80);
+		this.dataFile = dataFile;
+		
+		name = table.getName(index);
+		
+		spriteID = table.getSpriteIndex(index);
+		visible = table.hasFlag(index, ObjectTable.Flag.VISIBLE);
+		solid = table.hasFlag(index, ObjectTable.Flag.SOLID);
+		depth = table.getDepth(index);
+		persistent = table.hasFlag(index, ObjectTable.Flag.PERSISTENT);
+		parentID = table.getParentIndex(index);
+		mask = table.getMask(index);
+		physics = table.hasFlag(index, ObjectTable.Flag.PHYSICS);
+		sensor = table.hasFlag(index, ObjectTable.Flag.SENSOR);
 		
-		shape = CollisionShape.values()[source.readInt(offset+40)];
+		shape = CollisionShape.values()[table.getShapeIndex(index)];
 		
-		density = Float.intBitsToFloat(source.readInt(offset+44));
-		restitution = Float.intBitsToFloat(source.readInt(offset+48));
-		group = Float.intBitsToFloat(source.readInt(offset+52));
-		linearDampening = Float.intBitsToFloat(source.readInt(offset+56));
-		angularDampening = Float.intBitsToFloat(source.readInt(offset+60));
-		unknown = Float.intBitsToFloat(source.readInt(offset+64));
-		friction = Float.intBitsToFloat(source.readInt(offset+68));
-		unknown2 = Float.intBitsToFloat(source.readInt(offset+72));
-		kinematic = Float.intBitsToFloat(source.readInt(offset+76));
+		density = table.getPhysics(index, ObjectTable.PhysicsField.DENSITY);
+		restitution = table.getPhysics(index, ObjectTable.PhysicsField.RESTITUTION);
+		group = table.getPhysics(index, ObjectTable.PhysicsField.GROUP);
+		linearDampening = table.getPhysics(index, ObjectTable.PhysicsField.LINEAR_DAMPENING);
+		angularDampening = table.getPhysics(index, ObjectTable.PhysicsField.ANGULAR_DAMPENING);
+		unknown = table.getPhysics(index, ObjectTable.PhysicsField.UNKNOWN);
+		friction = table.getPhysics(index, ObjectTable.PhysicsField.FRICTION);
+		unknown2 = table.getPhysics(index, ObjectTable.PhysicsField.UNKNOWN2);
+		kinematic = table.getPhysics(index, ObjectTable.PhysicsField.KINEMATIC);
 	}
 	
 	public ObjectResource getParent() {
-		if(parent == null && parentID > -1) {
-			parent = dataFile.getObjects().get(parentID);
+		ObjectResource out = parent;
+		if(out == null && parentID > -1) {
+			parent = out = dataFile.getObjects().get(parentID);
 		}
-		return parent;
+		return out;
 	}
+	// Resolved on first use so OBJT can load without SPRT
 	public SpriteResource getSprite() {
-		return sprite;
+		SpriteResource out = sprite;
+		if(out == null && spriteID > -1) {
+			if(!dataFile.isSelected(Category.SPRITES)) {
+				throw new IllegalStateException(String.format("cannot resolve sprite %d of object %s, SPRITES was not selected in the load options", spriteID, name.getString()));
+			}
+			sprite = out = dataFile.getSprites().get(spriteID);
+		}
+		return out;
+	}
+	// -1 if the object doesn't have a sprite
+	public int getSpriteIndex() {
+		return spriteID;
 	}
 	public CollisionShape getShape() {
 		return shape;
@@ -123,13 +166,24 @@ public class ObjectResource extends Resource {
 		return mask;
 	}
 	
+	// Only looked up if sprites have already loaded, logging an object shouldn't load (or need) them
+	private String describeSprite() {
+		if(spriteID < 0) {
+			return null;
+		}
+		if(sprite == null && !dataFile.isLoaded(Category.SPRITES)) {
+			return "#" + spriteID;
+		}
+		return this.getSprite().getName().getString();
+	}
+	
 	@Override
 	public String toString() {
 		return String.format(
 				"%s [name=%s, sprite=%s, parent=%s, visible=%s, solid=%s, persistent=%s]",
 				this.getClass().getSimpleName(),
 				name.getString(),
-				sprite == null ? null : sprite.getName().getString(),
+				this.describeSprite(),
 				this.getParent() == null ? null : parent.getName().getString(),
 				visible,
 				solid,
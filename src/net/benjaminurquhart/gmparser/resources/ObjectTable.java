@@ -0,0 +1,213 @@
+package net.benjaminurquhart.gmparser.resources;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import net.benjaminurquhart.gmparser.GMDataFile;
+import net.benjaminurquhart.gmparser.iff.IFFChunk;
+
+// Every OBJT entry packed into one array per field instead of an object per entry.
+// Queries scan the columns directly and hand back indices, which line up with GMDataFile.getObjects().
+public class ObjectTable {
+
+	public static enum Flag {
+		VISIBLE,
+		SOLID,
+		PERSISTENT,
+		PHYSICS,
+		SENSOR;
+
+		private int bit() {
+			return 1 << this.ordinal();
+		}
+	}
+
+	public static enum PhysicsField {
+		DENSITY,
+		RESTITUTION,
+		GROUP,
+		LINEAR_DAMPENING,
+		ANGULAR_DAMPENING,
+		UNKNOWN,
+		FRICTION,
+		UNKNOWN2,
+		KINEMATIC;
+	}
+
+	// Conditions are ANDed together, an empty query matches everything
+	public static class Query {
+
+		private int required, excluded;
+		private int minDepth = Integer.MIN_VALUE, maxDepth = Integer.MAX_VALUE;
+		private int sprite = -2, parent = -2;
+		private IntPredicate predicate;
+
+		public Query require(Flag... flags) {
+			for(Flag flag : flags) {
+				required |= flag.bit();
+			}
+			return this;
+		}
+		public Query exclude(Flag... flags) {
+			for(Flag flag : flags) {
+				excluded |= flag.bit();
+			}
+			return this;
+		}
+		// Inclusive on both ends
+		public Query setDepthRange(int min, int max) {
+			if(min > max) {
+				throw new IllegalArgumentException(String.format("invalid depth range: [%d, %d]", min, max));
+			}
+			this.minDepth = min;
+			this.maxDepth = max;
+			return this;
+		}
+		// -1 for objects without a sprite
+		public Query setSpriteIndex(int sprite) {
+			this.sprite = sprite;
+			return this;
+		}
+		// -1 for objects without a parent
+		public Query setParentIndex(int parent) {
+			this.parent = parent;
+			return this;
+		}
+		// Called with the index of each object that passed everything else
+		public Query and(IntPredicate predicate) {
+			this.predicate = this.predicate == null ? predicate : this.predicate.and(predicate);
+			return this;
+		}
+	}
+
+	// Size of an entry in ints
+	private static final int FIELDS = 20;
+
+	private int[] pointers, names, sprites, depths, parents, masks, shapes;
+	private float[][] physics = new float[PhysicsField.values().length][];
+	private byte[] flags;
+
+	private GMDataFile dataFile;
+	private IFFChunk source;
+
+	// Pointers are absolute, like the ones in the chunk's own pointer list
+	public ObjectTable(GMDataFile dataFile, IFFChunk source, int[] pointers) {
+		this.dataFile = dataFile;
+		this.pointers = pointers;
+		this.source = source;
+
+		int size = pointers.length;
+		names = new int[size];
+		sprites = new int[size];
+		depths = new int[size];
+		parents = new int[size];
+		masks = new int[size];
+		shapes = new int[size];
+		flags = new byte[size];
+		for(int i = 0; i < physics.length; i++) {
+			physics[i] = new float[size];
+		}
+		long base = source.getAbsoluteOffset();
+		int[] row = new int[FIELDS];
+		for(int i = 0; i < size; i++) {
+			source.readInts(pointers[i]-base, row);
+			names[i] = row[0];
+			sprites[i] = row[1];
+			depths[i] = row[4];
+			parents[i] = row[6];
+			masks[i] = row[7];
+			shapes[i] = row[10];
+			flags[i] = (byte)(bit(row[2], Flag.VISIBLE) | bit(row[3], Flag.SOLID) | bit(row[5], Flag.PERSISTENT) | bit(row[8], Flag.PHYSICS) | bit(row[9], Flag.SENSOR));
+			for(int j = 0; j < physics.length; j++) {
+				physics[j][i] = Float.intBitsToFloat(row[11+j]);
+			}
+		}
+	}
+	private static int bit(int value, Flag flag) {
+		return value == 0 ? 0 : flag.bit();
+	}
+
+	private boolean matches(Query query, int index) {
+		int flags = this.flags[index];
+		return (flags & query.required) == query.required
+				&& (flags & query.excluded) == 0
+				&& depths[index] >= query.minDepth
+				&& depths[index] <= query.maxDepth
+				&& (query.sprite == -2 || sprites[index] == query.sprite)
+				&& (query.parent == -2 || parents[index] == query.parent)
+				&& (query.predicate == null || query.predicate.test(index));
+	}
+	// Indices of every matching object, in table order
+	public int[] select(Query query) {
+		int[] out = new int[pointers.length];
+		int count = 0;
+		for(int i = 0; i < pointers.length; i++) {
+			if(this.matches(query, i)) {
+				out[count++] = i;
+			}
+		}
+		return Arrays.copyOf(out, count);
+	}
+	public int count(Query query) {
+		int count = 0;
+		for(int i = 0; i < pointers.length; i++) {
+			if(this.matches(query, i)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	public void forEach(Query query, IntConsumer consumer) {
+		for(int i = 0; i < pointers.length; i++) {
+			if(this.matches(query, i)) {
+				consumer.accept(i);
+			}
+		}
+	}
+
+	// A new ObjectResource every time, use GMDataFile.getObjects() for the shared ones
+	public ObjectResource create(int index) {
+		if(index < 0 || index >= pointers.length) {
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for " + pointers.length + " entries");
+		}
+		return new ObjectResource(dataFile, this, index);
+	}
+	public int size() {
+		return pointers.length;
+	}
+	public IFFChunk getSource() {
+		return source;
+	}
+
+	public long getPointer(int index) {
+		return pointers[index];
+	}
+	public StringResource getName(int index) {
+		return dataFile.getStringFromAbsoluteOffset(names[index]);
+	}
+	public int getNameOffset(int index) {
+		return names[index];
+	}
+	public int getSpriteIndex(int index) {
+		return sprites[index];
+	}
+	public int getParentIndex(int index) {
+		return parents[index];
+	}
+	public int getDepth(int index) {
+		return depths[index];
+	}
+	public int getMask(int index) {
+		return masks[index];
+	}
+	public int getShapeIndex(int index) {
+		return shapes[index];
+	}
+	public boolean hasFlag(int index, Flag flag) {
+		return (flags[index] & flag.bit()) != 0;
+	}
+	public float getPhysics(int index, PhysicsField field) {
+		return physics[field.ordinal()][index];
+	}
+}
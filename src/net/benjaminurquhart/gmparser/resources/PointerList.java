@@ -2,15 +2,13 @@ package net.benjaminurquhart.gmparser.resources;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class PointerList extends AbstractList<Resource> {
 
-	private Map<Long, Resource> pointerMap;
+	private PointerMap<Resource> pointerMap;
 	private List<Resource> resources;
 	private IFFChunk chunk;
 	private int size;
@@ -18,7 +16,6 @@ public class PointerList extends AbstractList<Resource> {
 	public PointerList(IFFChunk chunk) {
 		this.chunk = chunk;
 		
-		pointerMap = new HashMap<>();
 		resources = new ArrayList<>();
 		
 		int offset = 0;
@@ -28,6 +25,7 @@ public class PointerList extends AbstractList<Resource> {
 		}
 		
 		int numItems = chunk.readInt(offset);
+		pointerMap = new PointerMap<>(Math.max(0, numItems));
 		int itemPtr = -1, previous = -1;
 		
 		this.size = numItems;
@@ -36,21 +34,20 @@ public class PointerList extends AbstractList<Resource> {
 			return;
 		}
 		
-		List<Integer> pointers = new ArrayList<>();
-		List<Integer> lengths = new ArrayList<>();
+		int[] pointers = chunk.readInts(offset + 4, new int[numItems]);
+		int[] lengths = new int[numItems];
 		
 		for(int i = 0; i < numItems; i++) {
-			itemPtr = chunk.readInt(offset + 4 + i*4);
-			pointers.add(itemPtr);
+			itemPtr = pointers[i];
 			if(previous > 0) {
-				lengths.add(itemPtr-previous);
+				lengths[i-1] = itemPtr-previous;
 			}
 			if(i != numItems-1) {
 				previous = itemPtr;
 			}
 		}
 		
-		lengths.add(itemPtr-previous);
+		lengths[numItems-1] = itemPtr-previous;
 		
 		int relativePtr;
 		
@@ -60,9 +57,9 @@ public class PointerList extends AbstractList<Resource> {
 		//System.out.println(lengths);
 		
 		for(int i = 0; i < numItems; i++) {
-			itemPtr = pointers.get(i);
+			itemPtr = pointers[i];
 			relativePtr = (int)(itemPtr-(chunk.getOffset()+16));
-			resource = new RawResource(chunk, relativePtr, lengths.get(i));
+			resource = new RawResource(chunk, relativePtr, lengths[i]);
 			pointerMap.put((long)itemPtr, resource);
 			resources.add(resource);
 		}
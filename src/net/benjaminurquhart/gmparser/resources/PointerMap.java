@@ -0,0 +1,116 @@
+package net.benjaminurquhart.gmparser.resources;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+// Open-addressing map from absolute pointers to resources.
+// Keys live in a long[] so there's no boxed Long or entry object per resource.
+// Not thread-safe, fill it on one thread and publish it once it's done.
+public class PointerMap<T> {
+
+	// Pointers come from (u)int32 fields so this never shows up as a real key
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private Object[] values;
+	private int size, mask;
+
+	public PointerMap() {
+		this(16);
+	}
+	public PointerMap(int expectedSize) {
+		if(expectedSize < 0) {
+			throw new IllegalArgumentException("invalid size: " + expectedSize);
+		}
+		// Kept at most half full
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize*2-1))*2;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity-1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key^(key>>>32));
+	}
+	private int indexOf(long key) {
+		int index = hash(key)&mask;
+		while(keys[index] != EMPTY && keys[index] != key) {
+			index = (index+1)&mask;
+		}
+		return index;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(long key) {
+		if(key == EMPTY) {
+			return null;
+		}
+		return (T)values[this.indexOf(key)];
+	}
+	// Fills out[i] with the value for keys[i], or null if there isn't one
+	public void get(long[] keys, T[] out) {
+		if(out.length < keys.length) {
+			throw new IllegalArgumentException(String.format("output array is too small (%d < %d)", out.length, keys.length));
+		}
+		for(int i = 0; i < keys.length; i++) {
+			out[i] = this.get(keys[i]);
+		}
+	}
+	public boolean containsKey(long key) {
+		return this.get(key) != null;
+	}
+	@SuppressWarnings("unchecked")
+	public T put(long key, T value) {
+		if(key == EMPTY) {
+			throw new IllegalArgumentException("invalid pointer: " + key);
+		}
+		if(value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+		int index = this.indexOf(key);
+		T previous = (T)values[index];
+		if(previous == null) {
+			if((size+1)*2 > keys.length) {
+				this.grow();
+				index = this.indexOf(key);
+			}
+			keys[index] = key;
+			size++;
+		}
+		values[index] = value;
+		return previous;
+	}
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length*2];
+		values = new Object[oldValues.length*2];
+		mask = keys.length-1;
+		Arrays.fill(keys, EMPTY);
+		int index;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY) {
+				index = this.indexOf(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+	// In no particular order
+	@SuppressWarnings("unchecked")
+	public void forEach(ObjLongConsumer<? super T> consumer) {
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != EMPTY) {
+				consumer.accept((T)values[i], keys[i]);
+			}
+		}
+	}
+	public int size() {
+		return size;
+	}
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -4,7 +4,7 @@ import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class RawResource extends Resource {
 
-	public RawResource(IFFChunk source, int offset, int length) {
+	public RawResource(IFFChunk source, long offset, long length) {
 		super(source, offset, length);
 	}
 
@@ -1,17 +1,36 @@
 package net.benjaminurquhart.gmparser.resources;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import net.benjaminurquhart.gmparser.iff.ByteBufferInputStream;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.iff.MemoryBudget;
+import net.benjaminurquhart.gmparser.iff.XXHash64;
 
 public abstract class Resource {
 
-	private int offset, length;
+	private long offset, length;
 	private IFFChunk source;
 	
-	protected Resource(IFFChunk source, int offset, int length) {
+	private volatile boolean hashed;
+	private long hash;
+
+	// Hashes every resource in parallel, see getHash()
+	public static <T extends Resource> Map<T, Long> computeHashes(Collection<T> resources) {
+		resources.parallelStream().forEach(Resource::getHash);
+
+		Map<T, Long> out = new LinkedHashMap<>();
+		for(T resource : resources) {
+			out.put(resource, resource.getHash());
+		}
+		return out;
+	}
+	
+	protected Resource(IFFChunk source, long offset, long length) {
 		if(length < 0) {
 			throw new IllegalArgumentException("invalid length: " + length);
 		}
@@ -22,12 +41,12 @@ public abstract class Resource {
 		this.offset = offset;
 		this.source = source;
 	}
-	protected Resource(IFFChunk source, int offset) {
+	protected Resource(IFFChunk source, long offset) {
 		this(source, offset, 0);
 		this.length = -1;
 	}
 	
-	protected void updateLength(int length) {
+	protected void updateLength(long length) {
 		if(this.length < 0) {
 			this.length = length;
 		}
@@ -39,19 +58,83 @@ public abstract class Resource {
 	public IFFChunk getSource() {
 		return source;
 	}
+	// Budget of the archive this came from, null if there isn't one
+	protected MemoryBudget getMemoryBudget() {
+		return source == null || source.getOrigin() == null ? null : source.getOrigin().getMemoryBudget();
+	}
 	public byte[] getBytes() {
 		if(source == null) {
 			throw new IllegalStateException("resources coming from external locations MUST override getBytes() (Offending resource: " + this + ")");
 		}
-		return Arrays.copyOfRange(source.getContents(), offset, offset+length);
+		if(length < 0) {
+			throw new IllegalStateException("resource length is unknown (Offending resource: " + this + ")");
+		}
+		// Only copy the range we need, the chunk itself may be mapped
+		if(length == 0) {
+			return new byte[0];
+		}
+		if(length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("resource is too large (" + length + " bytes) to be copied into an array (Offending resource: " + this + ")");
+		}
+		MemoryBudget budget = this.getMemoryBudget();
+		if(budget != null) {
+			budget.check(length, "copy of " + this.getClass().getSimpleName());
+		}
+		return source.read(offset, (int)length, new byte[(int)length]);
+	}
+	// xxHash64 of the payload, only computed once.
+	// Anything backed by a chunk is hashed in place instead of being copied.
+	public long getHash() {
+		if(!hashed) {
+			synchronized(this) {
+				if(!hashed) {
+					hash = this.computeHash();
+					hashed = true;
+				}
+			}
+		}
+		return hash;
+	}
+	// Resources whose bytes don't come straight from their range of the chunk should override this
+	protected long computeHash() {
+		if(source == null || length < 0) {
+			return XXHash64.hash(this.asByteBuffer());
+		}
+		if(length == 0) {
+			return XXHash64.hash(new byte[0]);
+		}
+		return source.hash(offset, length);
+	}
+	// Read-only view of the payload. Unlike getBytes(), nothing is copied for
+	// resources that live inside of a chunk.
+	public ByteBuffer asByteBuffer() {
+		if(source == null || length < 0) {
+			return ByteBuffer.wrap(this.getBytes()).asReadOnlyBuffer();
+		}
+		if(length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("resource is too large (" + length + " bytes) to be viewed as a single buffer (Offending resource: " + this + ")");
+		}
+		return source.asByteBuffer(offset, (int)length);
 	}
 	public InputStream getStream() {
-		return new ByteArrayInputStream(this.getBytes());
+		return new ByteBufferInputStream(this.asByteBuffer());
 	}
 	public int getOffset() {
-		return offset;
+		if(offset > Integer.MAX_VALUE) {
+			throw new IllegalStateException("offset " + offset + " does not fit in an int, use getLongOffset() instead");
+		}
+		return (int)offset;
 	}
 	public int getLength() {
+		if(length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("length " + length + " does not fit in an int, use getLongLength() instead");
+		}
+		return (int)length;
+	}
+	public long getLongOffset() {
+		return offset;
+	}
+	public long getLongLength() {
 		return length;
 	}
 	@Override
@@ -60,8 +143,8 @@ public abstract class Resource {
 			return String.format(
 					"%s [source=EXTERNAL, 0x%08x (%d) bytes]", 
 					this.getClass().getSimpleName(),
-					this.getLength(),
-					this.getLength()
+					this.getLongLength(),
+					this.getLongLength()
 			);
 		}
 		return String.format(
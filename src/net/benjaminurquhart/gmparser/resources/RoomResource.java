@@ -4,9 +4,31 @@ import net.benjaminurquhart.gmparser.GMDataFile;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class RoomResource extends Resource {
+	
+	private StringResource name;
 
 	public RoomResource(GMDataFile dataFile, IFFChunk source, int offset) {
+		this(dataFile, source, offset, -1);
+	}
+	// length < 0 if it isn't known
+	public RoomResource(GMDataFile dataFile, IFFChunk source, int offset, long length) {
 		super(source, offset);
+		if(length >= 0) {
+			this.updateLength(length);
+		}
+		
+		// The name is the first field of every room
+		name = dataFile.getStringFromAbsoluteOffset(source.readInt(offset));
+	}
+	
+	// Null if the name points outside of STRG
+	public StringResource getName() {
+		return name;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("RoomResource [name=%s]", name == null ? null : name.getString());
 	}
 
 }
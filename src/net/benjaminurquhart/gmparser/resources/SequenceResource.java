@@ -139,7 +139,7 @@ public class SequenceResource extends Resource {
 	protected SequenceResource(GMDataFile data, IFFChunk source, int offset, int length) {
 		super(source, offset, length);
 		
-		ByteBuffer buff = ByteBuffer.wrap(this.getBytes());
+		ByteBuffer buff = this.asByteBuffer();
 		buff.order(ByteOrder.LITTLE_ENDIAN);
 		
 		this.name = data.getStringFromAbsoluteOffset(buff.getInt());
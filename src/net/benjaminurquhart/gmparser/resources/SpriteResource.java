@@ -2,23 +2,26 @@ package net.benjaminurquhart.gmparser.resources;
 
 import java.awt.image.BufferedImage;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import net.benjaminurquhart.gmparser.GMDataFile;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.iff.XXHash64;
 
 public class SpriteResource extends Resource {
 
 	private GMDataFile dataFile;
 	
-	private WeakReference<BufferedImage[]> frames;
-	private TPAGResource[] tpags;
-	private StringResource name;
+	private volatile WeakReference<BufferedImage[]> frames;
+	private TPAGTable tpags;
+	private int[] tpagIndices;
+	private volatile StringResource name;
 	
-	private WeakReference<byte[]> animation;
+	private volatile WeakReference<byte[]> animation;
 	
 	private int[] tpagOffsets;
-	private byte[] bytes;
+	private volatile byte[] bytes;
 	
 	private int nameOffset, width, height;
 	
@@ -35,15 +38,16 @@ public class SpriteResource extends Resource {
 		this.height = height;
 		this.width = width;
 		
-		this.tpags = new TPAGResource[tpagOffsets.length];
+		// Frames are kept as indices into the TPAG table, views are created when needed
+		this.tpags = dataFile.getTPAGTable();
+		this.tpagIndices = new int[tpagOffsets.length];
 		
-		TPAGResource tpag;
-		int index = 0;
+		int tpag, index = 0;
 		
 		for(int tpagOffset : tpagOffsets) {
-			tpag = dataFile.getTPAGFromAbsoluteOffset(tpagOffset);
+			tpag = tpags == null ? -1 : tpags.indexOf(Integer.toUnsignedLong(tpagOffset));
 			
-			if(tpag == null) {
+			if(tpag < 0) {
 				throw new IllegalArgumentException(
 						String.format(
 								"Invalid TPAG offset 0x%08x at index %d for sprite at offset 0x%08x (%s)",
@@ -54,7 +58,7 @@ public class SpriteResource extends Resource {
 						)
 				);
 			}
-			tpags[index++] = tpag;
+			tpagIndices[index++] = tpag;
 		}
 	}
 	public int getWidth() {
@@ -64,61 +68,115 @@ public class SpriteResource extends Resource {
 		return height;
 	}
 	public StringResource getName() {
-		if(name == null) {
-			name = dataFile.getStringFromAbsoluteOffset(nameOffset);
+		StringResource out = name;
+		if(out == null) {
+			name = out = dataFile.getStringFromAbsoluteOffset(nameOffset);
 		}
-		return name;
+		return out;
 	}
 	public BufferedImage getTexture() {
 		return this.getFrames()[0];
 	}
 	public BufferedImage[] getFrames() {
+		BufferedImage[] out = this.getCachedFrames();
+		return Arrays.copyOf(out, out.length);
+	}
+	// The array is only published once every frame is in it
+	private BufferedImage[] getCachedFrames() {
+		WeakReference<BufferedImage[]> frames = this.frames;
 		BufferedImage[] out = frames == null ? null : frames.get();
 		if(out == null) {
-			TPAGResource tpag;
-			out = new BufferedImage[tpags.length];
-			frames = new WeakReference<>(out);
-			
-			for(int i = 0; i < tpags.length; i++) {
-				tpag = tpags[i];
-				out[i] = tpag.getImage();
+			synchronized(this) {
+				frames = this.frames;
+				out = frames == null ? null : frames.get();
+				if(out == null) {
+					out = new BufferedImage[tpagIndices.length];
+					for(int i = 0; i < tpagIndices.length; i++) {
+						out[i] = tpags.getImage(tpagIndices[i]);
+					}
+					this.frames = new WeakReference<>(out);
+				}
 			}
 		}
-		return Arrays.copyOf(out, out.length);
+		return out;
 	}
 	public byte[] getAsGIF() {
+		byte[] bytes = this.getCachedGIF();
+		return Arrays.copyOf(bytes, bytes.length);
+	}
+	// Encoding is expensive, concurrent callers wait for the same GIF
+	private byte[] getCachedGIF() {
+		WeakReference<byte[]> animation = this.animation;
 		byte[] bytes = animation == null ? null : animation.get();
 		if(bytes == null) {
-			bytes = this.getAsGIF(1);
-			animation = new WeakReference<>(bytes);
+			synchronized(this) {
+				animation = this.animation;
+				bytes = animation == null ? null : animation.get();
+				if(bytes == null) {
+					bytes = this.getAsGIF(1);
+					this.animation = new WeakReference<>(bytes);
+				}
+			}
 		}
-		return Arrays.copyOf(bytes, bytes.length);
+		return bytes;
 	}
 	public byte[] getAsGIF(int scale) {
 		return new GIFBuilder(this).setScale(scale).build();
 	}
 	public TPAGResource[] getTPAGInfo() {
-		return Arrays.copyOf(tpags, tpags.length);
+		TPAGResource[] out = new TPAGResource[tpagIndices.length];
+		for(int i = 0; i < out.length; i++) {
+			out[i] = tpags.get(tpagIndices[i]);
+		}
+		return out;
+	}
+	// Single frame without copying the frame array
+	public BufferedImage getFrame(int index) {
+		WeakReference<BufferedImage[]> frames = this.frames;
+		BufferedImage[] out = frames == null ? null : frames.get();
+		if(out == null) {
+			return tpags.getImage(tpagIndices[index]);
+		}
+		return out[index];
+	}
+	// Read-only view of the cached GIF, getAsGIF() returns a copy
+	public ByteBuffer getAsGIFBuffer() {
+		return ByteBuffer.wrap(this.getCachedGIF()).asReadOnlyBuffer();
+	}
+	// The sprite's range of SPRT doesn't cover its frame list, hash the record instead
+	@Override
+	protected long computeHash() {
+		return XXHash64.hash(this.asByteBuffer());
 	}
 	@Override
 	public byte[] getBytes() {
-		if(bytes == null) {
-			bytes = new byte[4*(tpags.length+2)];
-			this.writeInt(bytes, nameOffset, 0);
-			this.writeInt(bytes, tpags.length, 4);
-			for(int i = 0; i < tpags.length; i++) {
-				this.writeInt(bytes, tpagOffsets[i], 8+4*i);
+		byte[] bytes = this.buildBytes();
+		return Arrays.copyOf(bytes, bytes.length);
+	}
+	@Override
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(this.buildBytes()).asReadOnlyBuffer();
+	}
+	private byte[] buildBytes() {
+		byte[] out = bytes;
+		if(out == null) {
+			out = new byte[4*(tpagIndices.length+2)];
+			this.writeInt(out, nameOffset, 0);
+			this.writeInt(out, tpagIndices.length, 4);
+			for(int i = 0; i < tpagIndices.length; i++) {
+				this.writeInt(out, tpagOffsets[i], 8+4*i);
 			}
+			bytes = out;
 		}
-		return Arrays.copyOf(bytes, bytes.length);
+		return out;
 	}
 	@Override
 	public String toString() {
-		return String.format("SpriteResource [offset=0x%08x, name=%s, frames=%d]", this.getSource().getOffset()+16+this.getOffset(), this.getName().getString(), tpags.length);
+		return String.format("SpriteResource [offset=0x%08x, name=%s, frames=%d]", this.getSource().getOffset()+16+this.getOffset(), this.getName().getString(), tpagIndices.length);
 	}
 	
 	private void writeInt(byte[] buff, int data, int offset) {
-		for(int i = 3; i >= 0; i++) {
+		for(int i = 3; i >= 0; i--) {
 			buff[offset+i] = (byte)(data&0xff);
 			data>>=8;
 		}
@@ -6,29 +6,31 @@ import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
 public class StringResource extends Resource {
 
-	private String string, parsed;
+	// Decoding is cheap and always gives the same result, so racing threads may both do it
+	private volatile String string, parsed;
 	
 	public StringResource(IFFChunk source, int offset, int length) {
 		super(source, offset, length);
 	}
 	
 	public String getString() {
-		if(string == null) {
-			string = new String(this.getBytes(), Charset.forName("UTF-8"));
+		String out = string;
+		if(out == null) {
+			string = out = Charset.forName("UTF-8").decode(this.asByteBuffer()).toString();
 		}
-		return string;
+		return out;
 	}
 	public String getParsedString() {
-		if(parsed == null) {
-			String out = this.getString();
-			parsed = out.replaceAll("\\\\T[tsamrfupTSAMRFUP]?", "")
+		String out = parsed;
+		if(out == null) {
+			parsed = out = this.getString().replaceAll("\\\\T[tsamrfupTSAMRFUP]?", "")
 						.replaceAll("\\\\[A-Z][0-9]?", "")
 						.replaceAll("\\\\\\[.\\]", "???")
 						.replaceAll("\\^\\d", "")
 						.replaceAll("/(%{0,}|\\^)$", "")
 						.replace("&", "\n");
 		}
-		return parsed;
+		return out;
 	}
 	@Override
 	public String toString() {
@@ -1,140 +1,86 @@
 package net.benjaminurquhart.gmparser.resources;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
 
 import net.benjaminurquhart.gmparser.GMDataFile;
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
 
+// View of one entry of a TPAGTable
 public class TPAGResource extends Resource {
 
-	private int x, y, width, height, targetX, targetY, targetWidth, targetHeight, boundingWidth, boundingHeight;
-	private WeakReference<BufferedImage> image;
-	private TextureResource sheet;
+	private TPAGTable table;
+	private int index;
 	
+	// Reads and checks one entry on its own, the way it was done before TPAGTable.
+	// Use GMDataFile.getTPAGTable() (or getTPAGFromAbsoluteOffset()) instead.
+	@Deprecated
 	public TPAGResource(GMDataFile dataFile, IFFChunk source, int offset) {
-		super(source, offset, 22);
-		
-		ByteBuffer buff = source.asByteBuffer();
-		buff.position(offset);
-		
-		this.x = buff.getShort();
-		this.y = buff.getShort();
-		
-		this.width = buff.getShort();
-		this.height = buff.getShort();
-		
-		this.targetX = buff.getShort();
-		this.targetY = buff.getShort();
-		
-		this.targetWidth = buff.getShort();
-		this.targetHeight = buff.getShort();
-		
-		this.boundingWidth = buff.getShort();
-		this.boundingHeight = buff.getShort();
-		
-		int sheetIndex = buff.getShort();
-		
-		this.sheet = sheetIndex < 0 ? null : dataFile.getTextures().get(sheetIndex);
-		
-		if(x < 0 || y < 0) {
-			StringBuilder byteStr = new StringBuilder();
-			for(byte b : this.getBytes()) {
-				byteStr.append(String.format("0x%02x ", b));
-			}
-			throw new IllegalStateException("Illegal sprite location: (" + x + ", " + y + "). Bytes: " + byteStr.toString().trim());
-		}
-		if(width <= 0 || height <= 0) {
-			throw new IllegalStateException("Illegal sprite dimensions: [" + width + " x " + height + "]");
-		}
-		if(sheet == null) {
-			System.err.printf("WARNING: invalid sheet index %d for %s\n", sheetIndex, this);
-			return;
-		}
-		BufferedImage sheetImage = sheet.getImage();
-		if(x+width > sheetImage.getWidth()) {
-			throw new IllegalStateException(
-					String.format(
-							"x + width (%d + %d = %d) goes out of bounds for the provided spritesheet (%s)",
-							x,
-							width,
-							x+width,
-							sheet
-					)
-			);
-		}
-		if(y+height > sheetImage.getHeight()) {
-			throw new IllegalStateException(
-					String.format(
-							"y + height (%d + %d = %d) goes out of bounds for the provided spritesheet (%s)",
-							y,
-							height,
-							y+height,
-							sheet
-					)
-			);
-		}
+		this(single(dataFile, source, offset), 0);
+	}
+	TPAGResource(TPAGTable table, int index) {
+		super(table.getSource(), table.getPointer(index)-table.getSource().getAbsoluteOffset(), 22);
+		this.table = table;
+		this.index = index;
+	}
+	private static TPAGTable single(GMDataFile dataFile, IFFChunk source, int offset) {
+		TPAGTable table = new TPAGTable(source, new int[] {(int)(source.getAbsoluteOffset()+offset)}, dataFile.getTextures());
+		table.validate(true);
+		return table;
 	}
 	
 	public int getX() {
-		return x;
+		return table.getX(index);
 	}
 	public int getY() {
-		return y;
+		return table.getY(index);
 	}
 	public int getWidth() {
-		return width;
+		return table.getWidth(index);
 	}
 	public int getHeight() {
-		return height;
+		return table.getHeight(index);
 	}
 	public int getTargetX() {
-		return targetX;
+		return table.getTargetX(index);
 	}
 	public int getTargetY() {
-		return targetY;
+		return table.getTargetY(index);
 	}
 	public int getTargetWidth() {
-		return targetWidth;
+		return table.getTargetWidth(index);
 	}
 	public int getTargetHeight() {
-		return targetHeight;
+		return table.getTargetHeight(index);
 	}
 	public int getBoundingWidth() {
-		return boundingWidth;
+		return table.getBoundingWidth(index);
 	}
 	public int getBoundingHeight() {
-		return boundingHeight;
+		return table.getBoundingHeight(index);
+	}
+	// Position in the TPAGTable (and the TPAG chunk's pointer list)
+	public int getIndex() {
+		return index;
 	}
+	// Cached by the table, so every view of an entry shares the same image
 	public BufferedImage getImage() {
-		BufferedImage out = image == null ? null : image.get();
-		if(out == null) {
-			if(sheet == null) {
-				out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				
-				Graphics2D graphics = out.createGraphics();
-				graphics.setColor(Color.BLACK);
-				graphics.fillRect(0, height/2, width/2, height/2);
-				graphics.fillRect(width/2, 0,  width/2, height/2);
-				
-				graphics.setColor(Color.MAGENTA);
-				graphics.fillRect(0, 0, width/2, height/2);
-				graphics.fillRect(width/2, height/2,  width/2, height/2);
-				
-				graphics.dispose();
-			}
-			else {
-				out = sheet.getImage().getSubimage(x, y, width, height);
-			}
-			image = new WeakReference<>(out);
-		}
-		return out;
+		return table.getImage(index);
 	}
 	public TextureResource getSpriteSheet() {
-		return sheet;
+		return table.getSheet(index);
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof TPAGResource)) {
+			return false;
+		}
+		TPAGResource resource = (TPAGResource)other;
+		return resource.table == table && resource.index == index;
+	}
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(table)*31+index;
 	}
 	
 	@Override
@@ -142,17 +88,17 @@ public class TPAGResource extends Resource {
 		return String.format(
 				"TPAGResource @ 0x%08x [coords=[%d, %d], dim=(%d x %d), target=([%d, %d], %d x %d), bounds=(%d x %d), sheet=%s]",
 				this.getOffset()+this.getSource().getOffset()+8,
-				x,
-				y,
-				width,
-				height,
-				targetX,
-				targetY,
-				targetWidth,
-				targetHeight,
-				boundingWidth,
-				boundingHeight,
-				sheet
+				this.getX(),
+				this.getY(),
+				this.getWidth(),
+				this.getHeight(),
+				this.getTargetX(),
+				this.getTargetY(),
+				this.getTargetWidth(),
+				this.getTargetHeight(),
+				this.getBoundingWidth(),
+				this.getBoundingHeight(),
+				this.getSpriteSheet()
 		);
 	}
 }
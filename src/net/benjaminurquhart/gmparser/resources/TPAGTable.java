@@ -0,0 +1,286 @@
+package net.benjaminurquhart.gmparser.resources;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.benjaminurquhart.gmparser.iff.IFFChunk;
+
+// Every TPAG entry packed into one array per field instead of an object per entry.
+// TPAGResources are flyweight views that are only created when asked for, bulk
+// consumers (atlas exporters etc.) can read the fields by index without creating any.
+public class TPAGTable {
+
+	// Field order within an entry, see GMDataFile.initTPAG()
+	private static final int X = 0, Y = 1, WIDTH = 2, HEIGHT = 3, TARGET_X = 4, TARGET_Y = 5,
+			TARGET_WIDTH = 6, TARGET_HEIGHT = 7, BOUNDING_WIDTH = 8, BOUNDING_HEIGHT = 9, SHEET = 10;
+	private static final int FIELDS = 11;
+
+	private short[][] fields = new short[FIELDS][];
+	private int[] pointers;
+
+	// Sorted copy of the pointers and the index each one came from (null if they already were sorted)
+	private long[] sortedPointers;
+	private int[] order;
+
+	// One slot per entry, filled with compareAndSet so readers never block each other
+	private AtomicReferenceArray<WeakReference<BufferedImage>> images;
+
+	private List<TextureResource> sheets;
+	private IFFChunk source;
+
+	// Entries that failed to read or validate, pointer lookups skip these
+	private BitSet invalid = new BitSet();
+	private RuntimeException failure;
+
+	// Pointers are absolute, like the ones in the chunk's own pointer list.
+	// Nothing is checked here, see validate().
+	public TPAGTable(IFFChunk source, int[] pointers, List<TextureResource> sheets) {
+		this.pointers = pointers;
+		this.source = source;
+		this.sheets = sheets;
+
+		int size = pointers.length;
+		images = new AtomicReferenceArray<>(size);
+		for(int i = 0; i < FIELDS; i++) {
+			fields[i] = new short[size];
+		}
+		ByteBuffer buff = source.asByteBuffer();
+		long base = source.getAbsoluteOffset();
+		int offset;
+		for(int i = 0; i < size; i++) {
+			offset = (int)(Integer.toUnsignedLong(pointers[i])-base);
+			try {
+				for(int j = 0; j < FIELDS; j++) {
+					fields[j][i] = buff.getShort(offset+j*2);
+				}
+			}
+			catch(RuntimeException e) {
+				this.invalidate(i, new IllegalStateException(String.format("TPAG entry %d at 0x%08x is outside of the chunk", i, this.getPointer(i)), e));
+			}
+		}
+		this.index();
+	}
+
+	// Checks every entry. Bad ones are left out of pointer lookups instead of taking the
+	// whole table down with them, then the first problem (if any) is thrown.
+	// If decodeSheets is set every sheet is decoded to check that its entries fit.
+	public void validate(boolean decodeSheets) {
+		for(int i = 0; i < pointers.length; i++) {
+			if(invalid.get(i)) {
+				continue;
+			}
+			try {
+				this.validate(i, decodeSheets);
+			}
+			catch(RuntimeException e) {
+				this.invalidate(i, e);
+			}
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+	private void invalidate(int index, RuntimeException e) {
+		invalid.set(index);
+		if(failure == null) {
+			failure = e;
+		}
+	}
+	public boolean isValid(int index) {
+		return !invalid.get(index);
+	}
+
+	// Pointers are unsigned so archives over 2 GB still work
+	private void index() {
+		boolean sorted = true;
+		for(int i = 1; i < pointers.length && sorted; i++) {
+			sorted = Integer.compareUnsigned(pointers[i-1], pointers[i]) < 0;
+		}
+		sortedPointers = new long[pointers.length];
+		if(sorted) {
+			for(int i = 0; i < pointers.length; i++) {
+				sortedPointers[i] = Integer.toUnsignedLong(pointers[i]);
+			}
+			return;
+		}
+		// Packed as pointer << 32 | index so a plain sort keeps them together.
+		// The sign bit is flipped first so the signed sort puts them in unsigned order.
+		long[] packed = new long[pointers.length];
+		for(int i = 0; i < pointers.length; i++) {
+			packed[i] = ((long)(pointers[i] ^ Integer.MIN_VALUE) << 32) | i;
+		}
+		Arrays.sort(packed);
+		order = new int[pointers.length];
+		for(int i = 0; i < packed.length; i++) {
+			sortedPointers[i] = Integer.toUnsignedLong((int)(packed[i] >> 32) ^ Integer.MIN_VALUE);
+			order[i] = (int)packed[i];
+		}
+	}
+
+	private void validate(int index, boolean decodeSheets) {
+		int x = this.getX(index), y = this.getY(index), width = this.getWidth(index), height = this.getHeight(index);
+		if(x < 0 || y < 0) {
+			StringBuilder byteStr = new StringBuilder();
+			ByteBuffer bytes = this.get(index).asByteBuffer();
+			while(bytes.hasRemaining()) {
+				byteStr.append(String.format("0x%02x ", bytes.get()));
+			}
+			throw new IllegalStateException("Illegal sprite location: (" + x + ", " + y + "). Bytes: " + byteStr.toString().trim());
+		}
+		if(width <= 0 || height <= 0) {
+			throw new IllegalStateException("Illegal sprite dimensions: [" + width + " x " + height + "]");
+		}
+		TextureResource sheet = this.getSheet(index);
+		if(sheet == null) {
+			System.err.printf("WARNING: invalid sheet index %d for %s\n", this.getSheetIndex(index), this.get(index));
+			return;
+		}
+		if(!decodeSheets) {
+			return;
+		}
+		BufferedImage sheetImage = sheet.getImage();
+		if(x+width > sheetImage.getWidth()) {
+			throw new IllegalStateException(
+					String.format(
+							"x + width (%d + %d = %d) goes out of bounds for the provided spritesheet (%s)",
+							x,
+							width,
+							x+width,
+							sheet
+					)
+			);
+		}
+		if(y+height > sheetImage.getHeight()) {
+			throw new IllegalStateException(
+					String.format(
+							"y + height (%d + %d = %d) goes out of bounds for the provided spritesheet (%s)",
+							y,
+							height,
+							y+height,
+							sheet
+					)
+			);
+		}
+	}
+
+	// Index of the entry at the (absolute) pointer, or -1 (also for invalid entries)
+	public int indexOf(long pointer) {
+		int index = Arrays.binarySearch(sortedPointers, pointer);
+		if(index < 0) {
+			return -1;
+		}
+		index = order == null ? index : order[index];
+		return invalid.get(index) ? -1 : index;
+	}
+	// A new view every time, views of the same entry are equal
+	public TPAGResource get(int index) {
+		if(index < 0 || index >= pointers.length) {
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for " + pointers.length + " entries");
+		}
+		return new TPAGResource(this, index);
+	}
+	// Part of the sheet the entry covers, or a checkerboard if it doesn't have one.
+	// Racing threads may both cut the subimage (cheap, the sheet is only decoded once)
+	// but only the first one gets stored and everyone gets that one back.
+	public BufferedImage getImage(int index) {
+		WeakReference<BufferedImage> cached = images.get(index);
+		BufferedImage out = cached == null ? null : cached.get();
+		while(out == null) {
+			BufferedImage image = this.createImage(index);
+			if(images.compareAndSet(index, cached, new WeakReference<>(image))) {
+				return image;
+			}
+			cached = images.get(index);
+			out = cached == null ? null : cached.get();
+		}
+		return out;
+	}
+	private BufferedImage createImage(int index) {
+		TextureResource sheet = this.getSheet(index);
+		int x = this.getX(index), y = this.getY(index), width = this.getWidth(index), height = this.getHeight(index);
+		if(sheet != null) {
+			return sheet.getImage().getSubimage(x, y, width, height);
+		}
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		
+		Graphics2D graphics = out.createGraphics();
+		graphics.setColor(Color.BLACK);
+		graphics.fillRect(0, height/2, width/2, height/2);
+		graphics.fillRect(width/2, 0,  width/2, height/2);
+		
+		graphics.setColor(Color.MAGENTA);
+		graphics.fillRect(0, 0, width/2, height/2);
+		graphics.fillRect(width/2, height/2,  width/2, height/2);
+		
+		graphics.dispose();
+		return out;
+	}
+	public List<TPAGResource> asList() {
+		return new AbstractList<TPAGResource>() {
+			@Override
+			public TPAGResource get(int index) {
+				return TPAGTable.this.get(index);
+			}
+			@Override
+			public int size() {
+				return pointers.length;
+			}
+		};
+	}
+	public int size() {
+		return pointers.length;
+	}
+	public IFFChunk getSource() {
+		return source;
+	}
+
+	public long getPointer(int index) {
+		return Integer.toUnsignedLong(pointers[index]);
+	}
+	public int getX(int index) {
+		return fields[X][index];
+	}
+	public int getY(int index) {
+		return fields[Y][index];
+	}
+	public int getWidth(int index) {
+		return fields[WIDTH][index];
+	}
+	public int getHeight(int index) {
+		return fields[HEIGHT][index];
+	}
+	public int getTargetX(int index) {
+		return fields[TARGET_X][index];
+	}
+	public int getTargetY(int index) {
+		return fields[TARGET_Y][index];
+	}
+	public int getTargetWidth(int index) {
+		return fields[TARGET_WIDTH][index];
+	}
+	public int getTargetHeight(int index) {
+		return fields[TARGET_HEIGHT][index];
+	}
+	public int getBoundingWidth(int index) {
+		return fields[BOUNDING_WIDTH][index];
+	}
+	public int getBoundingHeight(int index) {
+		return fields[BOUNDING_HEIGHT][index];
+	}
+	public int getSheetIndex(int index) {
+		return fields[SHEET][index];
+	}
+	// Null if the entry doesn't have a sheet
+	public TextureResource getSheet(int index) {
+		int sheet = fields[SHEET][index];
+		return sheet < 0 ? null : sheets.get(sheet);
+	}
+}
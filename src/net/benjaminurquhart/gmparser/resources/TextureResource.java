@@ -3,56 +3,95 @@ package net.benjaminurquhart.gmparser.resources;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
 import net.benjaminurquhart.gmparser.iff.IFFChunk;
+import net.benjaminurquhart.gmparser.iff.MemoryBudget;
 
 public class TextureResource extends Resource {
 
-	private WeakReference<BufferedImage> texture;
-	private BufferedImage tempReference;
-	private boolean allowGC;
-	private String format;
+	private volatile WeakReference<BufferedImage> texture;
+	private volatile BufferedImage tempReference;
+	private volatile boolean allowGC;
+	private volatile String format;
 	
-	public TextureResource(IFFChunk source, int offset, int length) {
+	public TextureResource(IFFChunk source, long offset, long length) {
 		super(source, offset, length);
 	}
 	
+	// Decoded at most once at a time, concurrent callers wait for the same image
 	public BufferedImage getImage() {
-		BufferedImage out = texture == null ? null : texture.get();
+		BufferedImage out = this.getCachedImage();
 		if(out == null) {
-			try {
-				out = ImageIO.read(this.getStream());
-				texture = new WeakReference<>(out);
-				if(!allowGC) {
-					tempReference = out;
-					return tempReference;
+			synchronized(this) {
+				out = this.getCachedImage();
+				if(out == null) {
+					try {
+						this.checkBudget();
+						out = ImageIO.read(this.getStream());
+						if(!allowGC) {
+							tempReference = out;
+						}
+						texture = new WeakReference<>(out);
+					}
+					catch(IOException e) {
+						e.printStackTrace();
+					}
 				}
 			}
-			catch(IOException e) {
-				e.printStackTrace();
-			}
 		}
 		return out;
 	}
+	private BufferedImage getCachedImage() {
+		WeakReference<BufferedImage> texture = this.texture;
+		return texture == null ? null : texture.get();
+	}
 	public String getImageFormat() {
-		if(format != null) {
-			return format;
+		String out = format;
+		if(out != null) {
+			return out;
 		}
 		try {
 			ImageInputStream stream = ImageIO.createImageInputStream(this.getStream());
-			format = ImageIO.getImageReaders(stream).next().getFormatName().toUpperCase();
+			format = out = ImageIO.getImageReaders(stream).next().getFormatName().toUpperCase();
 			stream.close();
 		}
 		catch(Exception e) {
 			e.printStackTrace();
 			return "INVALID";
 		}
-		return format;
+		return out;
+	}
+	// Reads the dimensions from the image header so huge (or bogus) textures are
+	// rejected before anything gets decoded
+	private void checkBudget() throws IOException {
+		MemoryBudget budget = this.getMemoryBudget();
+		if(budget == null) {
+			return;
+		}
+		long decodedSize;
+		try(ImageInputStream stream = ImageIO.createImageInputStream(this.getStream())) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if(!readers.hasNext()) {
+				return;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				decodedSize = 4L*reader.getWidth(0)*reader.getHeight(0);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		budget.check(decodedSize, "decoded texture");
 	}
-	public void allowGC() {
+	// Synchronized so a decode that's in progress can't pin the image afterwards
+	public synchronized void allowGC() {
 		this.tempReference = null;
 		this.allowGC = true;
 	}
@@ -69,7 +108,7 @@ public class TextureResource extends Resource {
 				this.getImageFormat(),
 				dimX,
 				dimY,
-				this.getSource().getOffset()+16+this.getOffset()
+				this.getSource().getOffset()+16+this.getLongOffset()
 		);
 	}
 }